@@ -11,6 +11,9 @@ public interface AddressMap {
     int OAM_START = 0xFE00, OAM_END = 0xFEA0, OAM_RAM_SIZE = OAM_END - OAM_START;
     int HIGH_RAM_START = 0xFF80, HIGH_RAM_END = 0xFFFF, HIGH_RAM_SIZE = HIGH_RAM_END - HIGH_RAM_START;
 
+    // Cartridge header
+    int LOGO_START = 0x0104, LOGO_END = 0x0134, LOGO_SIZE = LOGO_END - LOGO_START;
+
     // Video RAM
     int[] TILE_SOURCE = new int[] { 0x8800, 0x8000 };
     int[] BG_DISPLAY_DATA = new int[] { 0x9800, 0x9C00 };
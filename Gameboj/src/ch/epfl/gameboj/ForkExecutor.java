@@ -0,0 +1,64 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Runs branches of a Game Boy in parallel, each on its own fork of it, e.g. to try every key for
+// the next frames. Each branch runs its fork as it wants and returns a result computed from it,
+// such as its state or its current image.
+public final class ForkExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+
+    public ForkExecutor(int threadsCount) {
+        checkArgument(0 < threadsCount);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threadsCount, r -> {
+            Thread t = new Thread(r, "gameboj-fork-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public ForkExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // The forks are made on the calling thread, which must be the one running the Game Boy,
+    // and the results are returned in the order of the branches once all of them are done
+    public <T> List<T> run(GameBoy gameBoy, List<? extends Function<GameBoy, T>> branches) {
+        List<Callable<T>> tasks = new ArrayList<>(branches.size());
+        for (Function<GameBoy, T> branch : branches) {
+            requireNonNull(branch);
+            GameBoy fork = gameBoy.fork();
+            tasks.add(() -> branch.apply(fork));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> f : executor.invokeAll(tasks))
+                results.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,143 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static ch.epfl.gameboj.component.lcd.LcdController.FRAME_TOTAL_CYCLES;
+import static java.util.Objects.requireNonNull;
+
+import ch.epfl.gameboj.component.lcd.RenderPolicy;
+
+// Runs a Game Boy by whole frames, as many at every tick as the real time elapsed since the previous
+// tick allows, scaled by the speed. At most maxFramesPerTick frames are run per tick, the others being
+// dropped, so that the emulation does not try to catch up after a stall. In turbo mode, every tick runs
+// maxFramesPerTick frames whatever the time. All durations are converted to cycles with integers only,
+// the remainder of every conversion being carried to the next one, so that the pace never drifts.
+// The settings may be changed from any thread, but tick must always be called from the same one.
+public final class FramePacer {
+    private static final long NANOS_PER_S = 1_000_000_000L;
+    private static final int DEFAULT_MAX_FRAMES_PER_TICK = 4;
+    // Longer durations between two ticks are shortened, to avoid overflows
+    private static final long MAX_TICK_NANOS = NANOS_PER_S;
+    // Larger terms of the speed would make the conversions overflow
+    public static final int MAX_SPEED_TERM = 1 << 10;
+
+    private final GameBoy gameBoy;
+
+    private int speedNumerator, speedDenominator;
+    private volatile int maxFramesPerTick;
+    private volatile boolean turbo, adaptiveFrameSkip;
+
+    private boolean started;
+    private long lastTickNanos;
+    // The cycles due and not run yet, and the remainder of the conversion of durations to cycles,
+    // in units of 1 / (NANOS_PER_S * speedDenominator) cycle
+    private long cyclesDue, scaledRemainder;
+    private int frameSkip;
+
+    private long framesRun, framesDropped;
+
+    public FramePacer(GameBoy gameBoy) {
+        this.gameBoy = requireNonNull(gameBoy);
+        this.speedNumerator = 1;
+        this.speedDenominator = 1;
+        this.maxFramesPerTick = DEFAULT_MAX_FRAMES_PER_TICK;
+        this.frameSkip = 1;
+    }
+
+    // The speed is numerator / denominator times the real one, e.g. 1 / 2 for slow motion,
+    // both terms being at most MAX_SPEED_TERM
+    public void setSpeed(int numerator, int denominator) {
+        checkArgument(0 < numerator && numerator <= MAX_SPEED_TERM);
+        checkArgument(0 < denominator && denominator <= MAX_SPEED_TERM);
+        synchronized (this) {
+            this.speedNumerator = numerator;
+            this.speedDenominator = denominator;
+        }
+    }
+
+    public void setTurbo(boolean turbo) {
+        this.turbo = turbo;
+    }
+
+    public boolean isTurbo() {
+        return turbo;
+    }
+
+    public void setMaxFramesPerTick(int maxFramesPerTick) {
+        checkArgument(0 < maxFramesPerTick);
+        this.maxFramesPerTick = maxFramesPerTick;
+    }
+
+    // With adaptive frame skip, when a tick runs n frames, only one frame out of n is rendered
+    public void setAdaptiveFrameSkip(boolean adaptiveFrameSkip) {
+        this.adaptiveFrameSkip = adaptiveFrameSkip;
+    }
+
+    public long framesRun() { return framesRun; }
+    public long framesDropped() { return framesDropped; }
+
+    // Returns the number of frames run
+    public int tick(long nowNanos) {
+        if (! started) {
+            lastTickNanos = nowNanos;
+            started = true;
+        }
+        long elapsedNanos = Math.min(Math.max(0, nowNanos - lastTickNanos), MAX_TICK_NANOS);
+        lastTickNanos = nowNanos;
+
+        int maxFrames = maxFramesPerTick;
+        int frames;
+        if (turbo) {
+            frames = maxFrames;
+            cyclesDue = 0;
+            scaledRemainder = 0;
+        } else {
+            addCyclesDue(elapsedNanos);
+            long framesDue = cyclesDue / FRAME_TOTAL_CYCLES;
+            cyclesDue -= framesDue * FRAME_TOTAL_CYCLES;
+            frames = (int) Math.min(framesDue, maxFrames);
+            framesDropped += framesDue - frames;
+        }
+
+        updateFrameSkip(frames);
+        gameBoy.runUntil(gameBoy.cycles() + (long) frames * FRAME_TOTAL_CYCLES);
+        framesRun += frames;
+        return frames;
+    }
+
+    private void addCyclesDue(long elapsedNanos) {
+        int numerator, denominator;
+        synchronized (this) {
+            numerator = speedNumerator;
+            denominator = speedDenominator;
+        }
+        long unit = NANOS_PER_S * denominator;
+        long scaled = elapsedNanos * GameBoy.CYCLES_PER_S * numerator + scaledRemainder;
+        cyclesDue += scaled / unit;
+        scaledRemainder = scaled % unit;
+    }
+
+    private void updateFrameSkip(int frames) {
+        int newFrameSkip = adaptiveFrameSkip ? Math.max(1, frames) : 1;
+        if (frames > 0 && newFrameSkip != frameSkip) {
+            frameSkip = newFrameSkip;
+            gameBoy.lcdController().setRenderPolicy(frameSkip == 1
+                    ? RenderPolicy.ALWAYS
+                    : RenderPolicy.everyNthFrame(frameSkip));
+        }
+    }
+
+    // The real time until the next tick can run a frame, 0 in turbo mode
+    public long nanosUntilNextFrame() {
+        if (turbo)
+            return 0;
+
+        int numerator, denominator;
+        synchronized (this) {
+            numerator = speedNumerator;
+            denominator = speedDenominator;
+        }
+        long missingScaled = (FRAME_TOTAL_CYCLES - cyclesDue) * NANOS_PER_S * denominator - scaledRemainder;
+        long cyclesPerS = GameBoy.CYCLES_PER_S * numerator;
+        return Math.max(0, (missingScaled + cyclesPerS - 1) / cyclesPerS);
+    }
+}
@@ -3,8 +3,19 @@ package ch.epfl.gameboj;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.epfl.gameboj.bits.Hashing;
 import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
 import ch.epfl.gameboj.component.Timer;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.component.cpu.Cpu;
@@ -13,19 +24,48 @@ import ch.epfl.gameboj.component.memory.BootRomController;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.RamController;
 
-public final class GameBoy {
+public final class GameBoy implements AutoCloseable {
     public static final long CYCLES_PER_S = 1 << 20;
     public static final double CYCLES_PER_NS = CYCLES_PER_S / 1e9;
 
+    // Must be incremented whenever the layout of the state changes
+    public static final int STATE_VERSION = 1;
+    private static final int STATE_MAGIC = 0x47424A53; // "GBJS"
+    private static final int INITIAL_STATE_CAPACITY = 1 << 15;
+
+    // Key events are packed as the cycle at which they apply, the key, and whether it is pressed
+    private static final int KEY_EVENTS_CAPACITY = 1 << 10;
+    private static final int KEY_EVENT_CYCLE_START = 4, KEY_EVENT_KEY_START = 1;
+
+    // The state of all parts but the cartridge after running the boot ROM, for every logo read by it
+    private static final Map<ByteBuffer, byte[]> POST_BOOT_STATES = new ConcurrentHashMap<>();
+
+    public enum MemoryRegion { WORK_RAM, VIDEO_RAM, OAM, HIGH_RAM, CARTRIDGE_RAM };
+
     private final Bus bus;
+    private final BootRomController bootRomController;
+    private final Cartridge cartridge;
+    private final Ram workRam;
     private final Cpu cpu;
     private final Timer timer;
     private final Joypad joypad;
     private final LcdController lcdController;
+    private final SpscLongQueue keyEvents;
+    private final List<KeyEventListener> keyEventListeners;
+    // The parts of the state, in the order in which they are saved
+    private final Stateful[] stateParts;
+    // Allocated by the first save, as most forks never save their state
+    private ByteBuffer stateBuffer;
 
     private long cycles;
 
     public GameBoy(Cartridge cartridge) {
+        this(cartridge, false);
+    }
+
+    // When skipBoot is true, the Game Boy starts in the state it would be in right after running
+    // the boot ROM, the cartridge being left in its current state
+    public GameBoy(Cartridge cartridge, boolean skipBoot) {
         BootRomController bootRomController = new BootRomController(requireNonNull(cartridge));
         Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
         RamController workRamController = new RamController(workRam, AddressMap.WORK_RAM_START);
@@ -40,24 +80,268 @@ public final class GameBoy {
             c.attachTo(bus);
 
         this.bus = bus;
+        this.bootRomController = bootRomController;
+        this.cartridge = cartridge;
+        this.workRam = workRam;
         this.cpu = cpu;
         this.timer = timer;
         this.joypad = joypad;
         this.lcdController = lcdController;
+        this.keyEvents = new SpscLongQueue(KEY_EVENTS_CAPACITY);
+        this.keyEventListeners = new ArrayList<>();
+        this.stateParts = new Stateful[] {bootRomController, cartridge, workRam, cpu, timer, joypad, lcdController};
 
         this.cycles = 0;
+        if (skipBoot)
+            loadParts(ByteBuffer.wrap(postBootState(cartridge)), false);
+    }
+
+    // The boot ROM reads nothing but the logo from the cartridge and writes nothing to it, so the
+    // state it leaves the other parts in only depends on the logo, which is the same for almost all
+    // cartridges. It is computed by running the boot ROM once per logo.
+    private static byte[] postBootState(Cartridge cartridge) {
+        byte[] logo = new byte[AddressMap.LOGO_SIZE];
+        for (int i = 0; i < logo.length; ++i)
+            logo[i] = (byte) cartridge.read(AddressMap.LOGO_START + i);
+
+        return POST_BOOT_STATES.computeIfAbsent(ByteBuffer.wrap(logo), l -> {
+            GameBoy gameBoy = new GameBoy(cartridge.withSameRom());
+            while (! gameBoy.bootRomController.isBootRomDisabled())
+                gameBoy.runUntil(gameBoy.cycles + 1);
+
+            ByteBuffer b = ByteBuffer.allocate(gameBoy.stateSize());
+            gameBoy.saveParts(b, false);
+            return Arrays.copyOf(b.array(), b.position());
+        });
     }
 
     public void runUntil(long cycle) {
         checkArgument(cycles <= cycle);
-        
+
         while (cycles < cycle) {
-            timer.cycle(cycles);
-            lcdController.cycle(cycles);
-            cpu.cycle(cycles);
+            applyKeyEvents();
+            long end = keyEvents.isEmpty() ? cycle : Math.min(cycle, keyEventCycle(keyEvents.peek()));
+            while (cycles < end) {
+                timer.cycle(cycles);
+                lcdController.cycle(cycles);
+                cpu.cycle(cycles);
+
+                cycles += 1;
+            }
+        }
+    }
+
+    // Key events are applied in the order they were posted, each one just before the given cycle is
+    // run, or as soon as possible if that cycle is already past. They may be posted by one thread at
+    // a time, while another one runs the Game Boy, and false is returned if too many are pending.
+    public boolean postKeyEvent(long cycle, Key key, boolean pressed) {
+        checkArgument(0 <= cycle && cycle < 1L << (Long.SIZE - KEY_EVENT_CYCLE_START));
+        return keyEvents.offer(packKeyEvent(cycle, key, pressed));
+    }
+
+    static long packKeyEvent(long cycle, Key key, boolean pressed) {
+        return (cycle << KEY_EVENT_CYCLE_START)
+                | (key.ordinal() << KEY_EVENT_KEY_START)
+                | (pressed ? 1 : 0);
+    }
+
+    static long keyEventCycle(long e) {
+        return e >>> KEY_EVENT_CYCLE_START;
+    }
+
+    private static Key keyEventKey(long e) {
+        return Key.values()[(int) (e >>> KEY_EVENT_KEY_START) & 0b111];
+    }
+
+    private static boolean keyEventPressed(long e) {
+        return (e & 1) != 0;
+    }
+
+    private void applyKeyEvents() {
+        while (! keyEvents.isEmpty() && keyEventCycle(keyEvents.peek()) <= cycles)
+            applyKeyEvent(keyEvents.poll());
+    }
+
+    // Applies the key event now, whatever its cycle
+    void applyKeyEvent(long e) {
+        Key key = keyEventKey(e);
+        boolean pressed = keyEventPressed(e);
+        if (pressed)
+            joypad.keyPressed(key);
+        else
+            joypad.keyReleased(key);
+        for (KeyEventListener l : keyEventListeners)
+            l.keyEventApplied(cycles, key, pressed);
+    }
+
+    public interface KeyEventListener {
+        void keyEventApplied(long cycle, Key key, boolean pressed);
+    }
+
+    // Listeners are called on the thread running the Game Boy, with the cycle before which
+    // the event was applied
+    public void addKeyEventListener(KeyEventListener l) {
+        keyEventListeners.add(requireNonNull(l));
+    }
+
+    public void removeKeyEventListener(KeyEventListener l) {
+        keyEventListeners.remove(l);
+    }
+
+    // The state holds everything needed for the emulation to continue exactly as it would have,
+    // except the pending key events, which are left in the queue, and the settings of the LCD
+    // controller. It can only be loaded into a Game Boy having the same kind of cartridge.
+    public void saveState(ByteBuffer b) {
+        b.putInt(STATE_MAGIC).putInt(STATE_VERSION);
+        saveParts(b, true);
+    }
+
+    public void loadState(ByteBuffer b) {
+        checkArgument(b.getInt() == STATE_MAGIC && b.getInt() == STATE_VERSION);
+        loadParts(b, true);
+    }
+
+    private void saveParts(ByteBuffer b, boolean withCartridge) {
+        b.putLong(cycles);
+        for (Stateful p : stateParts) {
+            if (withCartridge || p != cartridge)
+                p.saveState(b);
+        }
+    }
+
+    private void loadParts(ByteBuffer b, boolean withCartridge) {
+        long newCycles = b.getLong();
+        checkArgument(0 <= newCycles);
+        cycles = newCycles;
+        for (Stateful p : stateParts) {
+            if (withCartridge || p != cartridge)
+                p.loadState(b);
+        }
+    }
+
+    // Puts the Game Boy back in place in the state of a new one whose cartridge is in its initial
+    // state. The pending key events are discarded, the listeners and the settings of the LCD
+    // controller are kept. Nothing is allocated but the shared pages of the memories, e.g. those shared
+    // with a fork or not yet written since the creation of the Game Boy, and the current image of the
+    // LCD controller when loading a state or skipping the boot.
+    public void reset() {
+        reset(false);
+    }
+
+    public void reset(boolean skipBoot) {
+        discardKeyEvents();
+        cycles = 0;
+        for (Stateful p : stateParts)
+            p.reset();
+        if (skipBoot)
+            loadParts(ByteBuffer.wrap(postBootState(cartridge)), false);
+    }
+
+    // Puts the Game Boy in the given state, discarding the pending key events
+    public void reset(byte[] state) {
+        discardKeyEvents();
+        loadState(state);
+    }
+
+    private void discardKeyEvents() {
+        while (! keyEvents.isEmpty())
+            keyEvents.poll();
+    }
+
+    // Stops the threads started for the Game Boy, e.g. the one of a pipelined LCD controller, which
+    // would otherwise keep it reachable. The Game Boy may still be used, without these threads.
+    @Override
+    public void close() {
+        lcdController.setPipelined(false);
+    }
+
+    // The size of the state only depends on the kind of cartridge
+    public int stateSize() {
+        return saveState().length;
+    }
+
+    // The state, in a new array of the exact size
+    public byte[] saveState() {
+        if (stateBuffer == null)
+            stateBuffer = ByteBuffer.allocate(INITIAL_STATE_CAPACITY);
+        while (true) {
+            try {
+                stateBuffer.clear();
+                saveState(stateBuffer);
+                stateBuffer.flip();
+                byte[] state = new byte[stateBuffer.remaining()];
+                stateBuffer.get(state);
+                return state;
+            } catch (BufferOverflowException e) {
+                stateBuffer = ByteBuffer.allocate(2 * stateBuffer.capacity());
+            }
+        }
+    }
+
+    public void loadState(byte[] state) {
+        loadState(ByteBuffer.wrap(state));
+    }
+
+    // The memory must only be read, e.g. to take snapshots of its dirty pages
+    public Ram memory(MemoryRegion r) {
+        switch (r) {
+        case WORK_RAM: return workRam;
+        case VIDEO_RAM: return lcdController.videoRam();
+        case OAM: return lcdController.oam();
+        case HIGH_RAM: return cpu.highRam();
+        case CARTRIDGE_RAM: return cartridge.ram();
+        default: throw new Error();
+        }
+    }
+
+    // A new Game Boy in the same state as this one, sharing all the memories with it page by page until
+    // either of them writes to a page, and that can then be run by another thread. Like when loading
+    // a state, the pending key events, the listeners and the settings of the LCD controller are not
+    // copied to the fork.
+    public GameBoy fork() {
+        GameBoy fork = new GameBoy(cartridge.withSameRom());
+        for (MemoryRegion r : MemoryRegion.values())
+            fork.memory(r).shareFrom(memory(r));
+
+        // Only the other parts are copied through the state, the memories being already shared
+        setMemoriesExcludedFromState(true);
+        fork.setMemoriesExcludedFromState(true);
+        try {
+            fork.loadState(saveState());
+        } finally {
+            setMemoriesExcludedFromState(false);
+            fork.setMemoriesExcludedFromState(false);
+        }
+        return fork;
+    }
+
+    private void setMemoriesExcludedFromState(boolean excluded) {
+        for (MemoryRegion r : MemoryRegion.values())
+            memory(r).setExcludedFromState(excluded);
+    }
+
+    public void clearDirtyPages() {
+        for (MemoryRegion r : MemoryRegion.values())
+            memory(r).clearDirtyPages();
+    }
+
+    // When enabled, the hashes of all memories are kept up to date by every write to them, which
+    // makes writes a bit slower but the state hash independent of the size of the memories
+    public void setStateHashing(boolean hashing) {
+        for (MemoryRegion r : MemoryRegion.values())
+            memory(r).setHashing(hashing);
+    }
 
-            cycles += 1;
+    // A hash of the contents of the given memories, and of the registers of the CPU if requested,
+    // e.g. to recognise the states already visited when exploring a game. It does not depend on
+    // whether state hashing is enabled, which only makes it faster to compute.
+    public long stateHash(Set<MemoryRegion> regions, boolean withCpuRegisters) {
+        long h = withCpuRegisters ? cpu.registersHash() : 0;
+        for (MemoryRegion r : MemoryRegion.values()) {
+            if (regions.contains(r))
+                h = Hashing.combine(h, memory(r).hash());
         }
+        return h;
     }
 
     public Bus bus() { return bus; }
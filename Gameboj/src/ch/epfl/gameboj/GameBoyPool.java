@@ -0,0 +1,64 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+
+// A pool of Game Boys with copies of a cartridge, ready to run from a start state, e.g. for the
+// episodes of a learning agent. Any thread may acquire and release them. Released Game Boys are
+// reset in place to the start state and kept up to the capacity of the pool, so that acquiring one
+// only allocates it when the pool is empty. They must not be used any more once released, and
+// their listeners and LCD controller settings are left as they are.
+public final class GameBoyPool {
+    private final Cartridge cartridge;
+    private final boolean skipBoot;
+    private final byte[] startState;
+    private final ArrayBlockingQueue<GameBoy> ready;
+
+    // Game Boys start in the state they have when created, possibly skipping the boot ROM
+    public GameBoyPool(Cartridge cartridge, boolean skipBoot, int capacity) {
+        this(cartridge, skipBoot, null, capacity);
+    }
+
+    // Game Boys start in the given state, saved by a Game Boy with the same kind of cartridge
+    public GameBoyPool(Cartridge cartridge, byte[] startState, int capacity) {
+        this(cartridge, false, startState.clone(), capacity);
+    }
+
+    private GameBoyPool(Cartridge cartridge, boolean skipBoot, byte[] startState, int capacity) {
+        checkArgument(0 < capacity);
+
+        this.cartridge = requireNonNull(cartridge);
+        this.skipBoot = skipBoot;
+        this.startState = startState;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public GameBoy acquire() {
+        GameBoy gameBoy = ready.poll();
+        if (gameBoy == null) {
+            gameBoy = new GameBoy(cartridge.withSameRom(), skipBoot);
+            if (startState != null)
+                gameBoy.loadState(startState);
+        }
+        return gameBoy;
+    }
+
+    // The Game Boy must have been acquired from this pool, and is closed and discarded if the pool is full
+    public void release(GameBoy gameBoy) {
+        if (startState != null)
+            gameBoy.reset(startState);
+        else
+            gameBoy.reset(skipBoot);
+        if (! ready.offer(gameBoy))
+            gameBoy.close();
+    }
+
+    // The number of Game Boys ready to be acquired
+    public int readyCount() {
+        return ready.size();
+    }
+}
@@ -0,0 +1,91 @@
+package ch.epfl.gameboj;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import ch.epfl.gameboj.bits.Hashing;
+
+// A recording of a session: the state it started from, the key events applied during it, packed by
+// GameBoy.packKeyEvent, and a rolling hash of the images of some frames, to check a replay against.
+// The hash of a checkpoint combines the hash of its image with the one of the previous checkpoint.
+public final class InputLog {
+    private static final int MAGIC = 0x47424A49; // "GBJI"
+    private static final int VERSION = 1;
+
+    private final int hashPeriod;
+    private final byte[] startState;
+    private final long[] events;
+    private final long[] checkpointFrames, checkpointHashes;
+    private final long endCycle;
+
+    InputLog(int hashPeriod, byte[] startState, long[] events,
+            long[] checkpointFrames, long[] checkpointHashes, long endCycle) {
+        this.hashPeriod = hashPeriod;
+        this.startState = startState;
+        this.events = events;
+        this.checkpointFrames = checkpointFrames;
+        this.checkpointHashes = checkpointHashes;
+        this.endCycle = endCycle;
+    }
+
+    static long combineHashes(long previous, long imageHash) {
+        return Hashing.combine(previous, imageHash);
+    }
+
+    public int hashPeriod() { return hashPeriod; }
+    public long endCycle() { return endCycle; }
+    public int eventsCount() { return events.length; }
+    public int checkpointsCount() { return checkpointFrames.length; }
+
+    byte[] startState() { return startState; }
+    long event(int i) { return events[i]; }
+    long checkpointFrame(int i) { return checkpointFrames[i]; }
+    long checkpointHash(int i) { return checkpointHashes[i]; }
+
+    // The start state is stored as saved, so a log can only be replayed by an emulator
+    // with the same state version
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream d = new DataOutputStream(out);
+        d.writeInt(MAGIC);
+        d.writeInt(VERSION);
+        d.writeInt(hashPeriod);
+        d.writeLong(endCycle);
+        d.writeInt(startState.length);
+        d.write(startState);
+        d.writeInt(events.length);
+        for (long e : events)
+            d.writeLong(e);
+        d.writeInt(checkpointFrames.length);
+        for (int i = 0; i < checkpointFrames.length; ++i) {
+            d.writeLong(checkpointFrames[i]);
+            d.writeLong(checkpointHashes[i]);
+        }
+        d.flush();
+    }
+
+    public static InputLog readFrom(InputStream in) throws IOException {
+        DataInputStream d = new DataInputStream(in);
+        if (d.readInt() != MAGIC || d.readInt() != VERSION)
+            throw new IOException("not an input log of this version");
+
+        int hashPeriod = d.readInt();
+        if (hashPeriod <= 0)
+            throw new IOException("invalid hash period: " + hashPeriod);
+        long endCycle = d.readLong();
+        byte[] startState = new byte[d.readInt()];
+        d.readFully(startState);
+        long[] events = new long[d.readInt()];
+        for (int i = 0; i < events.length; ++i)
+            events[i] = d.readLong();
+        int checkpointsCount = d.readInt();
+        long[] checkpointFrames = new long[checkpointsCount], checkpointHashes = new long[checkpointsCount];
+        for (int i = 0; i < checkpointsCount; ++i) {
+            checkpointFrames[i] = d.readLong();
+            checkpointHashes[i] = d.readLong();
+        }
+        return new InputLog(hashPeriod, startState, events, checkpointFrames, checkpointHashes, endCycle);
+    }
+}
@@ -0,0 +1,78 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+// Records the key events applied to a Game Boy, with the cycles at which they took effect, from its
+// current state on. Every frame whose index is a multiple of hashPeriod is a checkpoint, whose image
+// is hashed: the recorder requests these frames to be rendered, which the RenderPolicy.everyNthFrame
+// policy used by replays does too, and frames that are not rendered anyway are not checkpoints.
+public final class InputRecorder implements GameBoy.KeyEventListener, LcdController.FrameListener {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final GameBoy gameBoy;
+    private final int hashPeriod;
+    private final byte[] startState;
+
+    private long[] events;
+    private int eventsCount;
+    private long[] checkpointFrames, checkpointHashes;
+    private int checkpointsCount;
+    private long rollingHash;
+
+    public InputRecorder(GameBoy gameBoy, int hashPeriod) {
+        checkArgument(0 < hashPeriod);
+
+        this.gameBoy = requireNonNull(gameBoy);
+        this.hashPeriod = hashPeriod;
+        this.startState = gameBoy.saveState();
+        this.events = new long[INITIAL_CAPACITY];
+        this.checkpointFrames = new long[INITIAL_CAPACITY];
+        this.checkpointHashes = new long[INITIAL_CAPACITY];
+
+        gameBoy.addKeyEventListener(this);
+        gameBoy.lcdController().addFrameListener(this);
+        if (gameBoy.lcdController().frameCount() % hashPeriod == 0)
+            gameBoy.lcdController().requestFrame();
+    }
+
+    @Override
+    public void keyEventApplied(long cycle, Key key, boolean pressed) {
+        if (eventsCount == events.length)
+            events = Arrays.copyOf(events, 2 * events.length);
+        events[eventsCount++] = GameBoy.packKeyEvent(cycle, key, pressed);
+    }
+
+    @Override
+    public void frameEnded(long frame, boolean rendered) {
+        if (frame % hashPeriod == 0 && rendered) {
+            if (checkpointsCount == checkpointFrames.length) {
+                checkpointFrames = Arrays.copyOf(checkpointFrames, 2 * checkpointsCount);
+                checkpointHashes = Arrays.copyOf(checkpointHashes, 2 * checkpointsCount);
+            }
+            rollingHash = InputLog.combineHashes(rollingHash,
+                    gameBoy.lcdController().currentImage().longHashCode());
+            checkpointFrames[checkpointsCount] = frame;
+            checkpointHashes[checkpointsCount] = rollingHash;
+            checkpointsCount += 1;
+        }
+        if ((frame + 1) % hashPeriod == 0)
+            gameBoy.lcdController().requestFrame();
+    }
+
+    // Stops recording, and returns the log of the session up to the current cycle
+    public InputLog stop() {
+        gameBoy.removeKeyEventListener(this);
+        gameBoy.lcdController().removeFrameListener(this);
+        return new InputLog(hashPeriod, startState,
+                Arrays.copyOf(events, eventsCount),
+                Arrays.copyOf(checkpointFrames, checkpointsCount),
+                Arrays.copyOf(checkpointHashes, checkpointsCount),
+                gameBoy.cycles());
+    }
+}
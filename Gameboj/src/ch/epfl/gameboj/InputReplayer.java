@@ -0,0 +1,67 @@
+package ch.epfl.gameboj;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.RenderPolicy;
+
+// Replays a session on a new Game Boy as fast as possible, applying the key events at the cycles
+// they were recorded at, and only rendering the frames whose index is a multiple of the hash period,
+// to compare the rolling hash of the checkpoints with the recorded one
+public final class InputReplayer implements LcdController.FrameListener {
+    private final InputLog log;
+    private final GameBoy gameBoy;
+
+    private int nextCheckpoint;
+    private long rollingHash;
+    private long firstDivergentFrame;
+
+    public InputReplayer(Cartridge cartridge, InputLog log) {
+        this.log = log;
+        this.gameBoy = new GameBoy(cartridge.withSameRom());
+        gameBoy.loadState(log.startState());
+        gameBoy.lcdController().setRenderPolicy(RenderPolicy.everyNthFrame(log.hashPeriod()));
+        gameBoy.lcdController().addFrameListener(this);
+        this.firstDivergentFrame = -1;
+    }
+
+    // The Game Boy running the replay, which may be examined once it stopped
+    public GameBoy gameBoy() {
+        return gameBoy;
+    }
+
+    // Replays the session until its end or its first divergent checkpoint, whose frame is returned,
+    // or -1 if all checkpoints matched
+    public long run() {
+        for (int i = 0; i < log.eventsCount() && firstDivergentFrame < 0; ++i) {
+            long e = log.event(i);
+            runUntil(GameBoy.keyEventCycle(e));
+            if (firstDivergentFrame < 0)
+                gameBoy.applyKeyEvent(e);
+        }
+        runUntil(log.endCycle());
+        return firstDivergentFrame;
+    }
+
+    // The number of checkpoints that matched the recorded ones
+    public int checkpointsVerified() {
+        return firstDivergentFrame < 0 ? nextCheckpoint : nextCheckpoint - 1;
+    }
+
+    // Runs frame by frame, to stop soon after a divergence
+    private void runUntil(long cycle) {
+        while (gameBoy.cycles() < cycle && firstDivergentFrame < 0)
+            gameBoy.runUntil(Math.min(cycle, gameBoy.cycles() + LcdController.FRAME_TOTAL_CYCLES));
+    }
+
+    @Override
+    public void frameEnded(long frame, boolean rendered) {
+        if (nextCheckpoint == log.checkpointsCount() || log.checkpointFrame(nextCheckpoint) != frame)
+            return;
+
+        rollingHash = InputLog.combineHashes(rollingHash,
+                rendered ? gameBoy.lcdController().currentImage().longHashCode() : 0);
+        if (rollingHash != log.checkpointHash(nextCheckpoint) && firstDivergentFrame < 0)
+            firstDivergentFrame = frame;
+        nextCheckpoint += 1;
+    }
+}
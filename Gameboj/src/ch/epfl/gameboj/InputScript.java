@@ -0,0 +1,84 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import ch.epfl.gameboj.component.Joypad.Key;
+
+// Key events to apply to a Game Boy from its power-on, at given cycles, followed by a run up to the
+// end cycle of the script, e.g. to reach the first frame of a game in which the player has control
+public final class InputScript {
+    private final long[] events;
+    private final long endCycle;
+
+    private InputScript(long[] events, long endCycle) {
+        this.events = events;
+        this.endCycle = endCycle;
+    }
+
+    public long endCycle() { return endCycle; }
+    public int eventsCount() { return events.length; }
+
+    // The first cycle at which the script acts on the Game Boy
+    long startCycle() {
+        return events.length == 0 ? endCycle : GameBoy.keyEventCycle(events[0]);
+    }
+
+    // Runs the script on the Game Boy, which must not have run past the start of the script
+    public void runOn(GameBoy gameBoy) {
+        for (long e : events) {
+            gameBoy.runUntil(GameBoy.keyEventCycle(e));
+            gameBoy.applyKeyEvent(e);
+        }
+        gameBoy.runUntil(endCycle);
+    }
+
+    void digestTo(MessageDigest d) {
+        ByteBuffer b = ByteBuffer.allocate((events.length + 1) * Long.BYTES);
+        for (long e : events)
+            b.putLong(e);
+        b.putLong(endCycle);
+        d.update(b.array());
+    }
+
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] events;
+        private int eventsCount;
+        private long lastCycle;
+
+        public Builder() {
+            this.events = new long[INITIAL_CAPACITY];
+        }
+
+        // Events must be added in the order of their cycles
+        public Builder keyEvent(long cycle, Key key, boolean pressed) {
+            checkArgument(lastCycle <= cycle);
+            long e = GameBoy.packKeyEvent(cycle, key, pressed);
+            checkArgument(GameBoy.keyEventCycle(e) == cycle);
+
+            if (eventsCount == events.length)
+                events = Arrays.copyOf(events, 2 * events.length);
+            events[eventsCount++] = e;
+            lastCycle = cycle;
+            return this;
+        }
+
+        public Builder press(long cycle, Key key) {
+            return keyEvent(cycle, key, true);
+        }
+
+        public Builder release(long cycle, Key key) {
+            return keyEvent(cycle, key, false);
+        }
+
+        public InputScript build(long endCycle) {
+            checkArgument(lastCycle <= endCycle);
+            return new InputScript(Arrays.copyOf(events, eventsCount), endCycle);
+        }
+    }
+}
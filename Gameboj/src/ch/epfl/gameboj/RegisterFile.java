@@ -2,10 +2,13 @@ package ch.epfl.gameboj;
 
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 
-public final class RegisterFile<E extends Register> {
+public final class RegisterFile<E extends Register> implements Stateful {
     private final byte[] regs;
 
     public RegisterFile(E[] allRegs) {
@@ -27,4 +30,19 @@ public final class RegisterFile<E extends Register> {
     public void setBit(E reg, Bit bit, boolean newValue) {
         set(reg, Bits.set(get(reg), bit.index(), newValue));
     }
+
+    @Override
+    public void saveState(ByteBuffer b) {
+        b.put(regs);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        b.get(regs);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(regs, (byte) 0);
+    }
 }
@@ -0,0 +1,276 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static ch.epfl.gameboj.component.lcd.LcdController.FRAME_TOTAL_CYCLES;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.epfl.gameboj.component.Joypad.Key;
+
+// Takes snapshots of a Game Boy every framesPerSnapshot frames, and records the key events applied
+// since the oldest one, so that the emulation can be rewound by loading the nearest snapshot and
+// running it again up to the requested frame. Only the newest snapshot is kept whole, every older
+// one being stored as the xor of its state with the state of the next one, compressed as runs of
+// zeros and literals, in a ring of fixed capacity from which the oldest snapshots are discarded.
+// Deltas are computed and compressed on a separate thread, but all methods must be called from
+// the thread running the Game Boy. Key events are the only inputs replayed, so the Game Boy must
+// not be modified by other means, e.g. through its bus, while the rewinder is in use.
+public final class Rewinder implements GameBoy.KeyEventListener {
+    // Zero runs shorter than this are stored as literals, as they would not make the delta smaller
+    private static final int MIN_ZERO_RUN = 4;
+    private static final int VARINT_BITS = 7;
+    private static final int INITIAL_EVENTS_CAPACITY = 64;
+
+    private static final class Snapshot {
+        final long cycle;
+        final int start, length;
+
+        Snapshot(long cycle, int start, int length) {
+            this.cycle = cycle;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final GameBoy gameBoy;
+    private final long cyclesPerSnapshot;
+    private final ExecutorService compressor;
+    private Future<?> lastCompression;
+    private long nextSnapshotCycle;
+
+    // Only accessed by the compressor, or after waiting for all compressions to be done
+    private final byte[] ring;
+    private int ringStart, ringUsed;
+    // The position of the next byte read from the ring, which is not wrapped around
+    private int ringCursor;
+    private final ArrayDeque<Snapshot> snapshots;
+    private byte[] newestState, delta, compressed;
+    private long newestCycle;
+    private volatile long oldestCycle;
+
+    // The key events applied since the oldest snapshot, packed by GameBoy.packKeyEvent
+    private long[] events;
+    private int eventsCount;
+
+    public Rewinder(GameBoy gameBoy, int framesPerSnapshot, int capacity) {
+        checkArgument(0 < framesPerSnapshot);
+        checkArgument(0 < capacity);
+
+        this.gameBoy = requireNonNull(gameBoy);
+        this.cyclesPerSnapshot = (long) framesPerSnapshot * FRAME_TOTAL_CYCLES;
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "gameboj-rewinder");
+            t.setDaemon(true);
+            return t;
+        });
+        this.ring = new byte[capacity];
+        this.snapshots = new ArrayDeque<>();
+        this.events = new long[INITIAL_EVENTS_CAPACITY];
+        this.nextSnapshotCycle = gameBoy.cycles();
+        gameBoy.addKeyEventListener(this);
+    }
+
+    // Stops recording, the rewinder can not be used any more afterwards
+    public void close() {
+        gameBoy.removeKeyEventListener(this);
+        compressor.shutdown();
+    }
+
+    @Override
+    public void keyEventApplied(long cycle, Key key, boolean pressed) {
+        if (eventsCount == events.length)
+            events = Arrays.copyOf(events, 2 * events.length);
+        events[eventsCount++] = GameBoy.packKeyEvent(cycle, key, pressed);
+    }
+
+    // Takes a snapshot if one is due, to be called after every run of the Game Boy
+    public void update() {
+        long cycle = gameBoy.cycles();
+        if (cycle < nextSnapshotCycle)
+            return;
+
+        byte[] state = gameBoy.saveState();
+        lastCompression = compressor.submit(() -> push(state, cycle));
+        nextSnapshotCycle = cycle + cyclesPerSnapshot;
+        forgetEventsBefore(oldestCycle);
+    }
+
+    // Rewinds by the given number of frames, or as far as the snapshots allow,
+    // and returns the number of frames actually rewound
+    public long rewind(int frames) {
+        checkArgument(0 <= frames);
+        awaitCompressions();
+        if (newestState == null)
+            return 0;
+
+        long startCycle = gameBoy.cycles();
+        long targetCycle = startCycle - (long) frames * FRAME_TOTAL_CYCLES;
+        while (newestCycle > targetCycle && ! snapshots.isEmpty()) {
+            Snapshot s = snapshots.pollLast();
+            ringUsed -= s.length;
+            xorSnapshot(s, newestState);
+            newestCycle = s.cycle;
+        }
+        oldestCycle = snapshots.isEmpty() ? newestCycle : snapshots.peekFirst().cycle;
+        targetCycle = Math.max(targetCycle, newestCycle);
+
+        gameBoy.loadState(newestState);
+        int firstReplayed = firstEventAtOrAfter(newestCycle);
+        long[] replayed = Arrays.copyOfRange(events, firstReplayed, eventsCount);
+        eventsCount = firstReplayed;
+        for (long e : replayed) {
+            long eventCycle = GameBoy.keyEventCycle(e);
+            if (eventCycle >= targetCycle)
+                break;
+            gameBoy.runUntil(eventCycle);
+            gameBoy.applyKeyEvent(e);
+        }
+        gameBoy.runUntil(targetCycle);
+        nextSnapshotCycle = newestCycle + cyclesPerSnapshot;
+        return (startCycle - targetCycle) / FRAME_TOTAL_CYCLES;
+    }
+
+    public int snapshotsCount() {
+        awaitCompressions();
+        return snapshots.size() + (newestState == null ? 0 : 1);
+    }
+
+    // The number of bytes of the ring holding compressed snapshots
+    public int bytesUsed() {
+        awaitCompressions();
+        return ringUsed;
+    }
+
+    private void awaitCompressions() {
+        if (lastCompression == null)
+            return;
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                lastCompression.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void forgetEventsBefore(long cycle) {
+        int first = firstEventAtOrAfter(cycle);
+        if (first > 0) {
+            System.arraycopy(events, first, events, 0, eventsCount - first);
+            eventsCount -= first;
+        }
+    }
+
+    private int firstEventAtOrAfter(long cycle) {
+        int i = 0;
+        while (i < eventsCount && GameBoy.keyEventCycle(events[i]) < cycle)
+            ++i;
+        return i;
+    }
+
+    private void push(byte[] state, long cycle) {
+        if (newestState != null) {
+            if (delta == null) {
+                delta = new byte[state.length];
+                compressed = new byte[2 * state.length + 16];
+            }
+            for (int i = 0; i < state.length; ++i)
+                delta[i] = (byte) (newestState[i] ^ state[i]);
+            store(newestCycle, compressed, compress(delta, compressed));
+        }
+        newestState = state;
+        newestCycle = cycle;
+        oldestCycle = snapshots.isEmpty() ? cycle : snapshots.peekFirst().cycle;
+    }
+
+    // Older snapshots can not be restored without this one, so they are all discarded if it does not fit
+    private void store(long cycle, byte[] data, int length) {
+        if (length > ring.length) {
+            snapshots.clear();
+            ringUsed = 0;
+            return;
+        }
+        while (ring.length - ringUsed < length) {
+            Snapshot oldest = snapshots.pollFirst();
+            ringStart = (ringStart + oldest.length) % ring.length;
+            ringUsed -= oldest.length;
+        }
+
+        int start = (ringStart + ringUsed) % ring.length;
+        int firstPart = Math.min(length, ring.length - start);
+        System.arraycopy(data, 0, ring, start, firstPart);
+        System.arraycopy(data, firstPart, ring, 0, length - firstPart);
+        ringUsed += length;
+        snapshots.addLast(new Snapshot(cycle, start, length));
+    }
+
+    // The delta is a sequence of runs of zeros followed by runs of literals, both lengths being varints
+    private static int compress(byte[] src, byte[] dst) {
+        int i = 0, o = 0;
+        while (i < src.length) {
+            int zerosEnd = i;
+            while (zerosEnd < src.length && src[zerosEnd] == 0)
+                ++zerosEnd;
+            int literalsEnd = zerosEnd, zeros = 0;
+            while (literalsEnd + zeros < src.length && zeros < MIN_ZERO_RUN) {
+                if (src[literalsEnd + zeros] == 0)
+                    ++zeros;
+                else {
+                    literalsEnd += zeros + 1;
+                    zeros = 0;
+                }
+            }
+
+            o = putVarint(dst, o, zerosEnd - i);
+            o = putVarint(dst, o, literalsEnd - zerosEnd);
+            System.arraycopy(src, zerosEnd, dst, o, literalsEnd - zerosEnd);
+            o += literalsEnd - zerosEnd;
+            i = literalsEnd;
+        }
+        return o;
+    }
+
+    private static int putVarint(byte[] dst, int o, int v) {
+        while (v >= 1 << VARINT_BITS) {
+            dst[o++] = (byte) (v | (1 << VARINT_BITS));
+            v >>>= VARINT_BITS;
+        }
+        dst[o++] = (byte) v;
+        return o;
+    }
+
+    private void xorSnapshot(Snapshot s, byte[] state) {
+        ringCursor = s.start;
+        int end = s.start + s.length;
+        int i = 0;
+        while (ringCursor < end) {
+            i += readVarint();
+            int literals = readVarint();
+            for (int j = 0; j < literals; ++j)
+                state[i++] ^= ring[(ringCursor++) % ring.length];
+        }
+    }
+
+    private int readVarint() {
+        int v = 0;
+        for (int shift = 0; ; shift += VARINT_BITS) {
+            int b = Byte.toUnsignedInt(ring[(ringCursor++) % ring.length]);
+            v |= (b & ((1 << VARINT_BITS) - 1)) << shift;
+            if (b < 1 << VARINT_BITS)
+                return v;
+        }
+    }
+}
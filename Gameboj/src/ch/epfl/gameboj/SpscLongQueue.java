@@ -0,0 +1,89 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded queue of longs for exactly one producer thread and one consumer thread, without locks.
+// offer and put may only be called by the producer, peek, poll and take only by the consumer.
+public final class SpscLongQueue {
+    private final long[] elements;
+    private final int mask;
+
+    // Number of elements ever taken and ever added, each written by only one side
+    private final AtomicLong head, tail;
+    // The last values of head and tail seen by the other side, to read them less often
+    private long producerHead, consumerTail;
+
+    public SpscLongQueue(int capacity) {
+        checkArgument(0 < capacity && Integer.bitCount(capacity) == 1);
+
+        this.elements = new long[capacity];
+        this.mask = capacity - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public boolean offer(long e) {
+        long t = tail.getPlain();
+        if (t - producerHead == elements.length) {
+            producerHead = head.getAcquire();
+            if (t - producerHead == elements.length)
+                return false;
+        }
+        elements[(int) t & mask] = e;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    public void put(long e) {
+        while (! offer(e))
+            Thread.onSpinWait();
+    }
+
+    public boolean isEmpty() {
+        return head.getAcquire() == tail.getAcquire();
+    }
+
+    public int size() {
+        return (int) (tail.getAcquire() - head.getAcquire());
+    }
+
+    private boolean hasNext(long h) {
+        if (h == consumerTail) {
+            consumerTail = tail.getAcquire();
+            return h != consumerTail;
+        }
+        return true;
+    }
+
+    public long peek() {
+        long h = head.getPlain();
+        if (! hasNext(h))
+            throw new NoSuchElementException();
+        return elements[(int) h & mask];
+    }
+
+    public long poll() {
+        long h = head.getPlain();
+        if (! hasNext(h))
+            throw new NoSuchElementException();
+        long e = elements[(int) h & mask];
+        head.setRelease(h + 1);
+        return e;
+    }
+
+    public long take() {
+        long h = head.getPlain();
+        while (! hasNext(h))
+            Thread.onSpinWait();
+        long e = elements[(int) h & mask];
+        head.setRelease(h + 1);
+        return e;
+    }
+}
@@ -0,0 +1,273 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.checkIndex;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.gameboj.bits.Hashing;
+import ch.epfl.gameboj.component.memory.Ram;
+
+// A store of states of Game Boys having the same kind of cartridge, in a memory-mapped file. Every
+// state is split in chunks of CHUNK_SIZE bytes, each distinct chunk being stored only once whatever
+// the number of states containing it, and is saved in a slot of fixed size holding the indices of its
+// chunks. Slots are allocated in order and never modified afterwards. Any number of threads may save
+// and restore states concurrently, a slot being readable by another thread once its index was passed
+// to it. A slot is committed by writing a marker after its chunks and their indices, from which the
+// counts of slots and chunks are recovered when the store is reopened, so that the slots saved before
+// the process stopped, even abruptly, are kept. Surviving a crash of the system requires a flush.
+public final class StateStore implements AutoCloseable {
+    public static final int CHUNK_SIZE = Ram.PAGE_SIZE;
+
+    private static final int MAGIC = 0x47424A44; // "GBJD"
+    private static final int VERSION = 2;
+    private enum HeaderField { MAGIC, VERSION, STATE_VERSION, STATE_SIZE, SLOT_CAPACITY, CHUNK_CAPACITY };
+    private static final int HEADER_SIZE = HeaderField.values().length * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedRegion slots, chunks;
+
+    private final int stateSize, chunksPerState, slotSize;
+    private final int slotCapacity, chunkCapacity;
+    private final AtomicInteger slotsCount, chunksCount;
+    // The index of a chunk for every hash of chunk contents, collisions being stored as distinct chunks
+    private final ConcurrentHashMap<Long, Integer> chunkIndices;
+    private final ThreadLocal<Buffers> buffers;
+
+    // The buffers of every thread, holding a state split in chunks, the indices of these chunks
+    // in the store, and a chunk read from the store
+    private static final class Buffers {
+        final byte[] state, chunk;
+        final int[] chunkIndices;
+        final ByteBuffer stateView;
+
+        Buffers(int chunksPerState) {
+            this.state = new byte[chunksPerState * CHUNK_SIZE];
+            this.chunk = new byte[CHUNK_SIZE];
+            this.chunkIndices = new int[chunksPerState];
+            this.stateView = ByteBuffer.wrap(state);
+        }
+    }
+
+    // Opens the store in the given file, creating it with the given capacities if it is empty
+    public static StateStore open(Path file, int stateSize, int slotCapacity, int chunkCapacity)
+            throws IOException {
+        checkArgument(0 < stateSize && 0 < slotCapacity && 0 < chunkCapacity);
+
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            boolean created = channel.size() == 0;
+            MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (created) {
+                putHeader(header, HeaderField.MAGIC, MAGIC);
+                putHeader(header, HeaderField.VERSION, VERSION);
+                putHeader(header, HeaderField.STATE_VERSION, GameBoy.STATE_VERSION);
+                putHeader(header, HeaderField.STATE_SIZE, stateSize);
+                putHeader(header, HeaderField.SLOT_CAPACITY, slotCapacity);
+                putHeader(header, HeaderField.CHUNK_CAPACITY, chunkCapacity);
+            } else if (getHeader(header, HeaderField.MAGIC) != MAGIC
+                    || getHeader(header, HeaderField.VERSION) != VERSION
+                    || getHeader(header, HeaderField.STATE_VERSION) != GameBoy.STATE_VERSION
+                    || getHeader(header, HeaderField.STATE_SIZE) != stateSize)
+                throw new IOException("incompatible state store: " + file);
+            return new StateStore(channel, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int getHeader(ByteBuffer header, HeaderField f) {
+        return header.getInt(f.ordinal() * Integer.BYTES);
+    }
+
+    private static void putHeader(ByteBuffer header, HeaderField f, int value) {
+        header.putInt(f.ordinal() * Integer.BYTES, value);
+    }
+
+    private StateStore(FileChannel channel, MappedByteBuffer header) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.stateSize = getHeader(header, HeaderField.STATE_SIZE);
+        this.chunksPerState = (stateSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        // The indices of the chunks, followed by the commit marker
+        this.slotSize = (chunksPerState + 1) * Integer.BYTES;
+        this.slotCapacity = getHeader(header, HeaderField.SLOT_CAPACITY);
+        this.chunkCapacity = getHeader(header, HeaderField.CHUNK_CAPACITY);
+
+        long slotsSize = (long) slotCapacity * slotSize;
+        this.slots = new MappedRegion(channel, HEADER_SIZE, slotsSize);
+        this.chunks = new MappedRegion(channel, HEADER_SIZE + slotsSize, (long) chunkCapacity * CHUNK_SIZE);
+
+        // Slots after the last committed one, and chunks after the last one used by a committed
+        // slot, were being saved when the store was closed, and can be reused
+        int slotsEnd = 0, chunksEnd = 0;
+        for (int s = 0; s < slotCapacity; ++s) {
+            int marker = slots.getInt(markerPosition(s));
+            if (marker != 0) {
+                slotsEnd = s + 1;
+                chunksEnd = Math.max(chunksEnd, marker);
+            }
+        }
+        this.slotsCount = new AtomicInteger(slotsEnd);
+        this.chunksCount = new AtomicInteger(chunksEnd);
+        this.chunkIndices = new ConcurrentHashMap<>();
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers(chunksPerState));
+
+        Buffers bs = buffers.get();
+        for (int i = 0; i < chunksCount(); ++i) {
+            chunks.get((long) i * CHUNK_SIZE, bs.state, 0, CHUNK_SIZE);
+            chunkIndices.putIfAbsent(chunkHash(bs.stateView, 0), i);
+        }
+    }
+
+    public int stateSize() { return stateSize; }
+    public int slotsCount() { return slotsCount.get(); }
+    public int chunksCount() { return chunksCount.get(); }
+
+    // Saves the state of the Game Boy in a new slot, whose index is returned. If the store is full,
+    // no slot is used, but the chunks already stored for the state are kept for later states.
+    public int save(GameBoy gameBoy) {
+        Buffers bs = buffers.get();
+        ByteBuffer b = ByteBuffer.wrap(bs.state, 0, stateSize);
+        gameBoy.saveState(b);
+        checkArgument(b.position() == stateSize);
+
+        int chunksEnd = 0;
+        for (int c = 0; c < chunksPerState; ++c) {
+            bs.chunkIndices[c] = chunkIndex(bs, c * CHUNK_SIZE);
+            chunksEnd = Math.max(chunksEnd, bs.chunkIndices[c] + 1);
+        }
+
+        int slot = allocate(slotsCount, slotCapacity, "slot");
+        long slotStart = (long) slot * slotSize;
+        for (int c = 0; c < chunksPerState; ++c)
+            slots.putInt(slotStart + c * Integer.BYTES, bs.chunkIndices[c]);
+        // The marker must not be written before the chunks and their indices
+        VarHandle.releaseFence();
+        slots.putInt(markerPosition(slot), chunksEnd);
+        return slot;
+    }
+
+    // The marker of a committed slot is the number of chunks it may use, which is not zero
+    private long markerPosition(int slot) {
+        return (long) slot * slotSize + chunksPerState * Integer.BYTES;
+    }
+
+    private static int allocate(AtomicInteger count, int capacity, String what) {
+        while (true) {
+            int i = count.get();
+            if (i >= capacity)
+                throw new IllegalStateException("no " + what + " left");
+            if (count.compareAndSet(i, i + 1))
+                return i;
+        }
+    }
+
+    private int chunkIndex(Buffers bs, int offset) {
+        long hash = chunkHash(bs.stateView, offset);
+        Integer index = chunkIndices.get(hash);
+        if (index != null) {
+            chunks.get((long) index * CHUNK_SIZE, bs.chunk, 0, CHUNK_SIZE);
+            if (Arrays.equals(bs.chunk, 0, CHUNK_SIZE, bs.state, offset, offset + CHUNK_SIZE))
+                return index;
+        }
+
+        int newIndex = allocate(chunksCount, chunkCapacity, "chunk");
+        chunks.put((long) newIndex * CHUNK_SIZE, bs.state, offset, CHUNK_SIZE);
+        chunkIndices.putIfAbsent(hash, newIndex);
+        return newIndex;
+    }
+
+    private static long chunkHash(ByteBuffer data, int offset) {
+        long h = 0;
+        for (int i = offset; i < offset + CHUNK_SIZE; i += Long.BYTES)
+            h = Hashing.combine(h, data.getLong(i));
+        return Hashing.finish(h);
+    }
+
+    // Loads the state saved in the slot into the Game Boy, in a time independent of the size of the store.
+    // The slot must have been committed, which is not the case of the slots that were being saved
+    // when the store was last closed.
+    public void restore(int slot, GameBoy gameBoy) {
+        checkIndex(slot, slotsCount());
+        checkArgument(slots.getInt(markerPosition(slot)) != 0);
+
+        Buffers bs = buffers.get();
+        long slotStart = (long) slot * slotSize;
+        for (int c = 0; c < chunksPerState; ++c) {
+            int index = slots.getInt(slotStart + c * Integer.BYTES);
+            chunks.get((long) index * CHUNK_SIZE, bs.state, c * CHUNK_SIZE, CHUNK_SIZE);
+        }
+        gameBoy.loadState(ByteBuffer.wrap(bs.state, 0, stateSize));
+    }
+
+    // Writes the store to the storage device
+    public void flush() {
+        slots.force();
+        chunks.force();
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    // A region of the file mapped in segments, as a single mapping can not exceed 2 GB. Accesses
+    // never straddle two segments, as their size is a multiple of the sizes of ints and chunks.
+    private static final class MappedRegion {
+        private static final int SEGMENT_BITS = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+        private static final int SEGMENT_MASK = (int) SEGMENT_SIZE - 1;
+
+        private final MappedByteBuffer[] segments;
+
+        MappedRegion(FileChannel channel, long start, long size) throws IOException {
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int s = 0; s < segments.length; ++s) {
+                long segmentStart = (long) s << SEGMENT_BITS;
+                segments[s] = channel.map(MapMode.READ_WRITE,
+                        start + segmentStart, Math.min(SEGMENT_SIZE, size - segmentStart));
+            }
+        }
+
+        private MappedByteBuffer segment(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)];
+        }
+
+        int getInt(long position) {
+            return segment(position).getInt((int) position & SEGMENT_MASK);
+        }
+
+        void putInt(long position, int value) {
+            segment(position).putInt((int) position & SEGMENT_MASK, value);
+        }
+
+        void get(long position, byte[] dst, int offset, int length) {
+            segment(position).get((int) position & SEGMENT_MASK, dst, offset, length);
+        }
+
+        void put(long position, byte[] src, int offset, int length) {
+            segment(position).put((int) position & SEGMENT_MASK, src, offset, length);
+        }
+
+        void force() {
+            for (MappedByteBuffer s : segments)
+                s.force();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ch.epfl.gameboj;
+
+import java.nio.ByteBuffer;
+
+// An object whose state can be written to a buffer, and later read back from it
+// to restore the object exactly as it was, or be put back in place in its initial state
+public interface Stateful {
+    void saveState(ByteBuffer b);
+    void loadState(ByteBuffer b);
+    void reset();
+}
@@ -0,0 +1,109 @@
+package ch.epfl.gameboj;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+
+// A cache of the states reached by running input scripts on Game Boys from their power-on, in a
+// directory holding one file per ROM and script, named after a digest of both. A state is saved
+// once computed, and loaded afterwards from its file mapped in memory, the mapping being kept for
+// later loads. Files saved with another state version are ignored and replaced. Several processes
+// may share the directory, each file being written under another name and then atomically renamed.
+public final class WarmStartCache {
+    private static final int MAGIC = 0x47424A57; // "GBJW"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final String SUFFIX = ".state";
+
+    private final Path directory;
+    // The read-only mappings of the states of the files already read, for every key
+    private final ConcurrentHashMap<String, ByteBuffer> states;
+
+    public WarmStartCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(requireNonNull(directory));
+        this.states = new ConcurrentHashMap<>();
+    }
+
+    // A new Game Boy, with a copy of the cartridge in its initial state, in the state reached by
+    // running the script on it
+    public GameBoy gameBoy(Cartridge cartridge, InputScript script) throws IOException {
+        String key = key(cartridge, script);
+        Path file = directory.resolve(key + SUFFIX);
+
+        ByteBuffer state = states.get(key);
+        if (state == null) {
+            state = map(file);
+            if (state != null)
+                states.put(key, state);
+        }
+        if (state != null) {
+            GameBoy gameBoy = new GameBoy(cartridge.withSameRom());
+            gameBoy.loadState(state.duplicate());
+            return gameBoy;
+        }
+
+        GameBoy gameBoy = new GameBoy(cartridge.withSameRom(), true);
+        if (gameBoy.cycles() > script.startCycle())
+            gameBoy = new GameBoy(cartridge.withSameRom());
+        script.runOn(gameBoy);
+        store(file, gameBoy.saveState());
+        return gameBoy;
+    }
+
+    private static String key(Cartridge cartridge, InputScript script) {
+        try {
+            MessageDigest d = MessageDigest.getInstance("SHA-256");
+            d.update(cartridge.romDigest());
+            script.digestTo(d);
+            return HexFormat.of().formatHex(d.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    // The state saved in the file, or null if there is none of the current version
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            MappedByteBuffer b = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            if (b.getInt() != MAGIC
+                    || b.getInt() != VERSION
+                    || b.getInt() != GameBoy.STATE_VERSION
+                    || b.getInt() != b.remaining())
+                return null;
+            return b.slice();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void store(Path file, byte[] state) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + state.length);
+        b.putInt(MAGIC).putInt(VERSION).putInt(GameBoy.STATE_VERSION).putInt(state.length).put(state);
+
+        Path temporary = Files.createTempFile(directory, "warm", ".tmp");
+        try {
+            Files.write(temporary, b.array());
+            Files.move(temporary, file,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
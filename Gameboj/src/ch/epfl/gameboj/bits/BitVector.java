@@ -9,6 +9,9 @@ import java.util.Arrays;
 
 public final class BitVector {
     private static final int CHUNK_SIZE = Integer.SIZE;
+    // The Vector API is only used when its incubator module was added to the JVM, e.g. with
+    // --add-modules jdk.incubator.vector, VectorKernels being never loaded otherwise
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
 
     private final int[] chunks;
 
@@ -41,6 +44,10 @@ public final class BitVector {
         return Bits.test(chunks[b / CHUNK_SIZE], b % CHUNK_SIZE);
     }
 
+    public int getInt(int index) {
+        return chunks[checkIndex(index, chunks.length)];
+    }
+
     public BitVector not() {
         int[] chunks1 = new int[chunks.length];
         for (int i = 0; i < chunks1.length; ++i)
@@ -66,6 +73,57 @@ public final class BitVector {
         return new BitVector(chunks1);
     }
 
+    // Bit i of the result is bit 2 * a_i + b_i of the truth table, a_i and b_i being bit i of this and that
+    public BitVector combine(BitVector that, int truthTable) {
+        checkArgument(that.size() == this.size());
+        checkArgument((truthTable & 0xF) == truthTable);
+        return new BitVector(combine(this.chunks, that.chunks, truthTable, VECTORIZED));
+    }
+
+    // Chunks not handled by the Vector API, if used, are combined one by one
+    static int[] combine(int[] a, int[] b, int truthTable, boolean vectorized) {
+        // Every term of the table as a mask, to combine all chunks the same way, without branches
+        int t0 = -(truthTable & 1), t1 = -((truthTable >>> 1) & 1);
+        int t2 = -((truthTable >>> 2) & 1), t3 = -((truthTable >>> 3) & 1);
+        int[] chunks1 = new int[a.length];
+        int i = vectorized ? VectorKernels.combine(a, b, t0, t1, t2, t3, chunks1) : 0;
+        for (; i < chunks1.length; ++i) {
+            int x = a[i], y = b[i];
+            chunks1[i] = (t0 & ~(x | y)) | (t1 & ~x & y) | (t2 & x & ~y) | (t3 & x & y);
+        }
+        return chunks1;
+    }
+
+    // Bit i of the result is bit i of ifSet if bit i of this is set, of ifClear otherwise
+    public BitVector select(BitVector ifSet, BitVector ifClear) {
+        checkArgument(ifSet.size() == this.size() && ifClear.size() == this.size());
+        return new BitVector(select(this.chunks, ifSet.chunks, ifClear.chunks, VECTORIZED));
+    }
+
+    static int[] select(int[] m, int[] s, int[] c, boolean vectorized) {
+        int[] chunks1 = new int[m.length];
+        int i = vectorized ? VectorKernels.select(m, s, c, chunks1) : 0;
+        for (; i < chunks1.length; ++i)
+            chunks1[i] = (s[i] & m[i]) | (c[i] & ~m[i]);
+        return chunks1;
+    }
+
+    // The bits of this below firstBit, followed by those of that
+    public BitVector join(BitVector that, int firstBit) {
+        checkArgument(that.size() == this.size());
+        checkArgument(0 <= firstBit && firstBit <= size());
+
+        int[] chunks1 = new int[chunks.length];
+        int splitChunk = firstBit / CHUNK_SIZE;
+        System.arraycopy(this.chunks, 0, chunks1, 0, splitChunk);
+        if (splitChunk < chunks1.length) {
+            int thatMask = -1 << (firstBit % CHUNK_SIZE);
+            chunks1[splitChunk] = (this.chunks[splitChunk] & ~thatMask) | (that.chunks[splitChunk] & thatMask);
+            System.arraycopy(that.chunks, splitChunk + 1, chunks1, splitChunk + 1, chunks1.length - splitChunk - 1);
+        }
+        return new BitVector(chunks1);
+    }
+
     public BitVector extractZeroExtended(int start, int size) {
         checkArgument(size > 0 && size % CHUNK_SIZE == 0);
         return extract(start, size, ExtensionMode.Zero);
@@ -152,6 +210,13 @@ public final class BitVector {
             return this;
         }
 
+        public Builder setInt(int index, int value) {
+            if (chunks == null)
+                throw new IllegalStateException();
+            chunks[checkIndex(index, chunks.length)] = value;
+            return this;
+        }
+
         public BitVector build() {
             if (chunks == null)
                 throw new IllegalStateException();
@@ -0,0 +1,88 @@
+package ch.epfl.gameboj.bits;
+
+import java.util.Random;
+
+// Compares the scalar and vector kernels of BitVector on lines of 160 and 256 bits, alone and as
+// used to compose a frame, every line mapping the colors of two layers and putting them one below
+// the other. The vector kernels are only measured when the JVM was started with
+// --add-modules jdk.incubator.vector.
+public final class BitVectorBenchmark {
+    private BitVectorBenchmark() {}
+
+    private static final int[] LINE_SIZES = new int[] { 160, 256 };
+    private static final int FRAME_LINES = 144;
+    private static final int ROUNDS = 5;
+    private static final int CALLS_PER_ROUND = 1 << 20;
+    private static final int FRAMES_PER_ROUND = 1 << 12;
+
+    private static int sink;
+
+    public static void main(String[] args) {
+        if (! BitVector.VECTORIZED)
+            System.out.println("jdk.incubator.vector is not available, measuring scalar kernels only");
+
+        Random random = new Random(2018);
+        for (int size : LINE_SIZES) {
+            int[][] planes = new int[3 * FRAME_LINES][size / Integer.SIZE];
+            for (int[] p : planes) {
+                for (int i = 0; i < p.length; ++i)
+                    p[i] = random.nextInt();
+            }
+
+            for (int round = 0; round < ROUNDS; ++round) {
+                boolean lastRound = round == ROUNDS - 1;
+                for (boolean vectorized : BitVector.VECTORIZED ? new boolean[] { false, true } : new boolean[] { false }) {
+                    String kernels = vectorized ? "vector" : "scalar";
+                    long combine = combineNanos(planes, vectorized);
+                    long select = selectNanos(planes, vectorized);
+                    long frame = frameNanos(planes, vectorized);
+                    if (lastRound)
+                        System.out.printf("%d bits, %s: combine %.1f ns, select %.1f ns, frame %.1f us%n",
+                                size, kernels,
+                                (double) combine / CALLS_PER_ROUND,
+                                (double) select / CALLS_PER_ROUND,
+                                frame / 1e3 / FRAMES_PER_ROUND);
+                }
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static long combineNanos(int[][] planes, boolean vectorized) {
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_ROUND; ++i) {
+            int l = i % FRAME_LINES;
+            sink ^= BitVector.combine(planes[l], planes[l + 1], i & 0xF, vectorized)[0];
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long selectNanos(int[][] planes, boolean vectorized) {
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_ROUND; ++i) {
+            int l = i % FRAME_LINES;
+            sink ^= BitVector.select(planes[l], planes[l + 1], planes[l + 2], vectorized)[0];
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Every line of a frame maps the msb and lsb planes of two layers, and puts the first below
+    // the second according to the opacity of the latter
+    private static long frameNanos(int[][] planes, boolean vectorized) {
+        long start = System.nanoTime();
+        for (int f = 0; f < FRAMES_PER_ROUND; ++f) {
+            int table = f & 0xF;
+            for (int l = 0; l < FRAME_LINES; ++l) {
+                int[] msb = planes[3 * l], lsb = planes[3 * l + 1], opacity = planes[3 * l + 2];
+                int[] msb0 = BitVector.combine(msb, lsb, table, vectorized);
+                int[] lsb0 = BitVector.combine(msb, lsb, ~table & 0xF, vectorized);
+                int[] msb1 = BitVector.combine(lsb, msb, table, vectorized);
+                int[] lsb1 = BitVector.combine(lsb, msb, ~table & 0xF, vectorized);
+                sink ^= BitVector.select(opacity, msb1, msb0, vectorized)[0];
+                sink ^= BitVector.select(opacity, lsb1, lsb0, vectorized)[0];
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
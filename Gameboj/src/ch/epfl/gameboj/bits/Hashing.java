@@ -0,0 +1,23 @@
+package ch.epfl.gameboj.bits;
+
+// The mixing functions shared by the non-cryptographic hashes of the states, images and inputs.
+// Hashes may be stored, e.g. in input logs, so these functions must never change.
+public final class Hashing {
+    private Hashing() {}
+
+    private static final long ROUND_MULTIPLIER = 0x9E37_79B9_7F4A_7C15L;
+    private static final long FINISH_MULTIPLIER = 0xFF51_AFD7_ED55_8CCDL;
+
+    // The hash h updated with the value x, depending on the order of the values
+    public static long combine(long h, long x) {
+        return Long.rotateLeft((h ^ x) * ROUND_MULTIPLIER, 31);
+    }
+
+    // The hash h with its bits mixed, so that every bit of h affects every bit of the result
+    public static long finish(long h) {
+        h ^= h >>> 33;
+        h *= FINISH_MULTIPLIER;
+        h ^= h >>> 33;
+        return h;
+    }
+}
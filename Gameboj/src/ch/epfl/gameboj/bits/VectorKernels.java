@@ -0,0 +1,39 @@
+package ch.epfl.gameboj.bits;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The kernels of BitVector on the lanes of the Vector API. Lines being five to eight chunks wide,
+// 128-bit vectors cover most of them on any host, and the chunks after the last full vector are
+// left to the scalar loops of BitVector, every kernel returning the index of the first of them.
+final class VectorKernels {
+    private VectorKernels() {}
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+    static int combine(int[] a, int[] b, int t0, int t1, int t2, int t3, int[] r) {
+        int end = SPECIES.loopBound(r.length);
+        for (int i = 0; i < end; i += SPECIES.length()) {
+            IntVector x = IntVector.fromArray(SPECIES, a, i);
+            IntVector y = IntVector.fromArray(SPECIES, b, i);
+            x.or(y).not().and(t0)
+                    .or(y.lanewise(VectorOperators.AND_NOT, x).and(t1))
+                    .or(x.lanewise(VectorOperators.AND_NOT, y).and(t2))
+                    .or(x.and(y).and(t3))
+                    .intoArray(r, i);
+        }
+        return end;
+    }
+
+    static int select(int[] m, int[] s, int[] c, int[] r) {
+        int end = SPECIES.loopBound(r.length);
+        for (int i = 0; i < end; i += SPECIES.length()) {
+            IntVector mask = IntVector.fromArray(SPECIES, m, i);
+            IntVector.fromArray(SPECIES, s, i).and(mask)
+                    .or(IntVector.fromArray(SPECIES, c, i).lanewise(VectorOperators.AND_NOT, mask))
+                    .intoArray(r, i);
+        }
+        return end;
+    }
+}
@@ -3,13 +3,17 @@ package ch.epfl.gameboj.component;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 
-public final class Joypad implements Component {
+public final class Joypad implements Component, Stateful {
     public enum Key {
         RIGHT, LEFT, UP, DOWN,
         A, B, SELECT, START;
@@ -65,6 +69,26 @@ public final class Joypad implements Component {
         pressedKeys[k.row()] = Bits.set(pressedKeys[k.row()], k.col(), false);
     }
 
+    @Override
+    public void saveState(ByteBuffer b) {
+        for (int r = 0; r < ROWS; ++r)
+            b.put((byte) pressedKeys[r]);
+        b.put((byte) selectedRows);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        for (int r = 0; r < ROWS; ++r)
+            pressedKeys[r] = Byte.toUnsignedInt(b.get());
+        selectedRows = Byte.toUnsignedInt(b.get());
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(pressedKeys, 0);
+        selectedRows = 0;
+    }
+
     private void interruptIfChange(int combinedPressedKeys0) {
         if ((~combinedPressedKeys0 & combinedPressedKeys()) != 0)
             cpu.requestInterrupt(Interrupt.JOYPAD);
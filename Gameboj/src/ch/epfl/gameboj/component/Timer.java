@@ -4,14 +4,17 @@ import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 import static java.util.Objects.requireNonNull;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 
-public final class Timer implements Component, Clocked {
+public final class Timer implements Component, Clocked, Stateful {
     private enum Reg implements Register { TIMA, TMA, TAC };
     private enum TacBits implements Bit { TAC_0, TAC_1, ENABLE };
     private final static int[] COUNTER_BIT = { 9, 3, 5, 7 };
@@ -67,6 +70,24 @@ public final class Timer implements Component, Clocked {
         incIfChange(s0);
     }
 
+    @Override
+    public void saveState(ByteBuffer b) {
+        b.putInt(counter);
+        regs.saveState(b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        counter = b.getInt();
+        regs.loadState(b);
+    }
+
+    @Override
+    public void reset() {
+        counter = 0;
+        regs.reset();
+    }
+
     private void incIfChange(boolean state0) {
         if (state0 && ! state()) {
             if (regs.get(Reg.TIMA) == 0xFF) {
@@ -7,11 +7,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class Cartridge implements Component {
+public final class Cartridge implements Component, Stateful {
     private final static int HEADER_MBC_OFFSET = 0x147;
     private final static int HEADER_RAM_SIZE_OFFSET = 0x149;
 
@@ -22,7 +25,7 @@ public final class Cartridge implements Component {
     private final static int MBC_1_RAM = 2;
     private final static int MBC_1_RAM_BATTERY = 3;
 
-    private final Component mbc;
+    private final MemoryBankController mbc;
 
     public static Cartridge ofFile(File romFile) throws IOException {
         try (InputStream c = new FileInputStream(romFile)) {
@@ -46,7 +49,7 @@ public final class Cartridge implements Component {
         }
     }
 
-    private Cartridge(Component mbc) {
+    private Cartridge(MemoryBankController mbc) {
         this.mbc = mbc;
     }
 
@@ -59,4 +62,35 @@ public final class Cartridge implements Component {
     public void write(int address, int data) {
         mbc.write(checkBits16(address), checkBits8(data));
     }
+
+    // A cartridge sharing the ROM of this one, in its initial state
+    public Cartridge withSameRom() {
+        return new Cartridge(mbc.withSameRom());
+    }
+
+    // The digest of the ROM, which identifies it
+    public byte[] romDigest() {
+        return mbc.rom().digest();
+    }
+
+    // The RAM of the cartridge, empty if it has none
+    public Ram ram() {
+        return mbc.ram();
+    }
+
+    @Override
+    public void saveState(ByteBuffer b) {
+        mbc.saveState(b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        mbc.loadState(b);
+    }
+
+    // Puts the cartridge back in its initial state, its RAM being cleared
+    @Override
+    public void reset() {
+        mbc.reset();
+    }
 }
@@ -3,17 +3,36 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 
-import ch.epfl.gameboj.component.Component;
+import java.nio.ByteBuffer;
+
+import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class MBC0 implements Component {
+public final class MBC0 implements MemoryBankController {
     private final static int ROM_SIZE = 0x8000;
     
     private final Rom rom;
+    private final Ram ram;
 
     public MBC0(Rom rom) {
         checkArgument(rom.size() == ROM_SIZE);
         this.rom = rom;
+        this.ram = new Ram(0);
+    }
+
+    @Override
+    public MBC0 withSameRom() {
+        return new MBC0(rom);
+    }
+
+    @Override
+    public Rom rom() {
+        return rom;
+    }
+
+    @Override
+    public Ram ram() {
+        return ram;
     }
 
     @Override
@@ -23,4 +42,13 @@ public final class MBC0 implements Component {
 
     @Override
     public void write(int address, int data) { }
+
+    @Override
+    public void saveState(ByteBuffer b) { }
+
+    @Override
+    public void loadState(ByteBuffer b) { }
+
+    @Override
+    public void reset() { }
 }
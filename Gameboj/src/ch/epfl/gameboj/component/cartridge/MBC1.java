@@ -3,12 +3,13 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.bits.Bits;
-import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class MBC1 implements Component {
+public final class MBC1 implements MemoryBankController {
     private static final int RAM_ENABLE = 0xA;
 
     private enum Mode { MODE_0, MODE_1 };
@@ -34,6 +35,21 @@ public final class MBC1 implements Component {
         this.ramMask = ramSize - 1;
     }
 
+    @Override
+    public MBC1 withSameRom() {
+        return new MBC1(rom, ram.size());
+    }
+
+    @Override
+    public Rom rom() {
+        return rom;
+    }
+
+    @Override
+    public Ram ram() {
+        return ram;
+    }
+
     public int read(int address) {
         switch (Bits.extract(checkBits16(address), 13, 3)) {
         case 0: case 1:
@@ -70,6 +86,33 @@ public final class MBC1 implements Component {
         }
     }
 
+    @Override
+    public void saveState(ByteBuffer b) {
+        b.put((byte) (ramEnabled ? 1 : 0))
+            .put((byte) mode.ordinal())
+            .put((byte) romLsb5)
+            .put((byte) ramRom2);
+        ram.saveState(b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        ramEnabled = b.get() != 0;
+        mode = Mode.values()[b.get()];
+        romLsb5 = b.get();
+        ramRom2 = b.get();
+        ram.loadState(b);
+    }
+
+    @Override
+    public void reset() {
+        ramEnabled = false;
+        mode = Mode.MODE_0;
+        romLsb5 = 1;
+        ramRom2 = 0;
+        ram.reset();
+    }
+
     private int msb2() {
         switch (mode) {
         case MODE_0: return 0;
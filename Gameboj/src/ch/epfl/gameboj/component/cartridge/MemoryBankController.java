@@ -0,0 +1,13 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import ch.epfl.gameboj.Stateful;
+import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.Rom;
+
+interface MemoryBankController extends Component, Stateful {
+    Rom rom();
+    Ram ram();
+    // A controller of the same kind, for the same ROM, in its initial state
+    MemoryBankController withSameRom();
+}
@@ -3,19 +3,23 @@ package ch.epfl.gameboj.component.cpu;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.bits.Hashing;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.cpu.Alu.Flag;
 import ch.epfl.gameboj.component.cpu.Alu.RotDir;
 import ch.epfl.gameboj.component.memory.Ram;
 
-public final class Cpu implements Component, Clocked {
+public final class Cpu implements Component, Clocked, Stateful {
     public enum Interrupt implements Bit {
         VBLANK, LCD_STAT, TIMER, SERIAL, JOYPAD;
     }
@@ -23,6 +27,7 @@ public final class Cpu implements Component, Clocked {
     private enum Reg implements Register {
         A, F, B, C, D, E, H, L
     }
+    private static final Reg[] ALL_REGS = Reg.values();
     private enum Reg16 {
         AF(Reg.A, Reg.F), BC(Reg.B, Reg.C), DE(Reg.D, Reg.E), HL(Reg.H, Reg.L);
 
@@ -128,10 +133,57 @@ public final class Cpu implements Component, Clocked {
         }
     }
 
+    @Override
+    public void saveState(ByteBuffer b) {
+        b.putShort((short) regPC).putShort((short) regSP);
+        regs.saveState(b);
+        b.put((byte) (flagIME ? 1 : 0)).put((byte) regIE).put((byte) regIF);
+        b.putLong(nextNonIdleCycle);
+        highRAM.saveState(b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        regPC = Short.toUnsignedInt(b.getShort());
+        regSP = Short.toUnsignedInt(b.getShort());
+        regs.loadState(b);
+        flagIME = b.get() != 0;
+        regIE = Byte.toUnsignedInt(b.get());
+        regIF = Byte.toUnsignedInt(b.get());
+        nextNonIdleCycle = b.getLong();
+        highRAM.loadState(b);
+    }
+
+    @Override
+    public void reset() {
+        regPC = regSP = 0;
+        regs.reset();
+        flagIME = false;
+        regIE = regIF = 0;
+        nextNonIdleCycle = 0;
+        highRAM.reset();
+    }
+
     private boolean pendingInterrupt() {
         return (regIE & regIF) != 0;
     }
 
+    // The memories returned by these accessors must only be read, e.g. to take snapshots of them
+    public Ram highRam() {
+        return highRAM;
+    }
+
+    // A hash of the registers, the interrupt enables and flags included, e.g. to identify a state
+    public long registersHash() {
+        long packedRegs = 0;
+        for (Reg r : ALL_REGS)
+            packedRegs = (packedRegs << Byte.SIZE) | regs.get(r);
+        long others = ((long) regPC << 48) | ((long) regSP << 32)
+                | (regIE << 16) | (regIF << 8) | (flagIME ? 1 : 0);
+
+        return Hashing.finish(Hashing.combine(0, packedRegs) ^ others);
+    }
+
     public int[] _testGetPcSpAFBCDEHL() {
         return new int[] {
                 regPC, regSP,
@@ -0,0 +1,423 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.lcd.LcdController.LcdcBit;
+import ch.epfl.gameboj.component.memory.Ram;
+
+// Renders lines as bit planes, reusing the layers, tiles and lines computed before when their inputs did not change
+final class BitPlaneRenderer implements LineRenderer {
+    private static final int BG_MAPS_COUNT = AddressMap.BG_DISPLAY_DATA.length;
+    private static final int BG_MAPS_ROWS = BG_MAPS_COUNT * FULL_LINE_TILES;
+
+    private static final LcdImageLine EMPTY_LINE =
+            new LcdImageLine(new BitVector(LCD_WIDTH), new BitVector(LCD_WIDTH), new BitVector(LCD_WIDTH));
+
+    // The inputs of a line are its packed registers, the number of sprites and,
+    // for each sprite, its x coordinate, its attributes and its tile line (see SpriteKey)
+    private static final int LINE_KEY_SPRITES_COUNT = Long.SIZE / Integer.SIZE;
+    private static final int LINE_KEY_SPRITES_START = LINE_KEY_SPRITES_COUNT + 1;
+    private enum SpriteKey { X, ATTRIBUTES, TILE_LINE };
+    private static final int SPRITE_KEY_SIZE = SpriteKey.values().length;
+    private static final int LINE_KEY_SIZE = LINE_KEY_SPRITES_START + MAX_SPRITES_PER_LINE * SPRITE_KEY_SIZE;
+
+    private final Ram vRam;
+    private final Ram oam;
+
+    // The registers of the line being computed
+    private long lineRegs;
+
+    // Tile lines decoded in both bit orders, packed as described in packTileLine
+    private final int[] decodedTileLines;
+    private final boolean[] decodedTiles;
+
+    // Both tile maps rendered as 256x256 layers, rebuilt by rows of tiles when dirty
+    private final LcdImageLine[][] layerLines;
+    private long dirtyLayerRows;
+    // For every tile, the number of times each row of the tile maps uses it,
+    // and the set of rows using it at least once, for the tile source in tileSource
+    private final byte[] tileUseCounts;
+    private final long[] tileUsers;
+    private boolean tileSource;
+
+    // The lines computed during the previous frames, with the inputs they were computed from
+    private final LcdImageLine[] lines;
+    private final int[][] lineKeys;
+    private final LcdImageLine[] lineBgLayers, lineWinLayers;
+    private final int[] lineKey;
+
+    // For every line, the set of sprites intersecting it, as a bit mask indexed by sprite,
+    // for the sprite size in tallSprites
+    private final long[] lineSprites;
+    private boolean tallSprites;
+    private final int[] lineSpritesToDisplay;
+    private final SpritePlanes bgSpritePlanes, fgSpritePlanes;
+
+    public BitPlaneRenderer(Ram vRam, Ram oam) {
+        this.vRam = LineRenderer.copyOf(vRam);
+        this.oam = LineRenderer.copyOf(oam);
+
+        this.decodedTileLines = new int[TILES_COUNT * TILE_LINES];
+        this.decodedTiles = new boolean[TILES_COUNT];
+        this.layerLines = new LcdImageLine[BG_MAPS_COUNT][FULL_LINE_SIZE];
+        this.tileUseCounts = new byte[TILES_COUNT * BG_MAPS_ROWS];
+        this.tileUsers = new long[TILES_COUNT];
+        trackAllTileUses();
+
+        this.lines = new LcdImageLine[LCD_HEIGHT];
+        this.lineKeys = new int[LCD_HEIGHT][LINE_KEY_SIZE];
+        this.lineBgLayers = new LcdImageLine[LCD_HEIGHT];
+        this.lineWinLayers = new LcdImageLine[LCD_HEIGHT];
+        this.lineKey = new int[LINE_KEY_SIZE];
+
+        this.lineSprites = new long[LCD_HEIGHT];
+        this.lineSpritesToDisplay = new int[MAX_SPRITES_PER_LINE];
+        this.bgSpritePlanes = new SpritePlanes();
+        this.fgSpritePlanes = new SpritePlanes();
+        trackAllSpriteLines();
+    }
+
+    private int reg(LineReg r) {
+        return LineRenderer.reg(lineRegs, r);
+    }
+
+    private boolean testLcdc(LcdcBit b) {
+        return Bits.test(reg(LineReg.LCDC), b);
+    }
+
+    @Override
+    public void writeVram(int index, int data) {
+        int previousData = vRam.read(index);
+        if (data == previousData)
+            return;
+
+        vRam.write(index, data);
+        if (index < TILE_DATA_BYTES) {
+            int tile = index / TILE_BYTES;
+            decodedTiles[tile] = false;
+            dirtyLayerRows |= tileUsers[tile];
+        } else {
+            int row = (index - TILE_DATA_BYTES) / FULL_LINE_TILES;
+            trackTileUse(previousData, row, -1);
+            trackTileUse(data, row, 1);
+            dirtyLayerRows |= 1L << row;
+        }
+    }
+
+    private void trackTileUse(int tileIndex, int row, int delta) {
+        int tile = bgTile(tileIndex);
+        int i = tile * BG_MAPS_ROWS + row;
+        tileUseCounts[i] += delta;
+        if (tileUseCounts[i] == 0)
+            tileUsers[tile] &= ~(1L << row);
+        else
+            tileUsers[tile] |= 1L << row;
+    }
+
+    private void trackAllTileUses() {
+        Arrays.fill(tileUseCounts, (byte) 0);
+        Arrays.fill(tileUsers, 0);
+        for (int i = 0; i < BG_MAPS_ROWS * FULL_LINE_TILES; ++i)
+            trackTileUse(vRam.read(TILE_DATA_BYTES + i), i / FULL_LINE_TILES, 1);
+        dirtyLayerRows = ~0L;
+    }
+
+    @Override
+    public void writeOam(int index, int data) {
+        int previousData = oam.read(index);
+        oam.write(index, data);
+        if (index % SPRITE_BYTES == SpriteField.Y.ordinal() && data != previousData) {
+            trackSpriteLines(index / SPRITE_BYTES, previousData, false);
+            trackSpriteLines(index / SPRITE_BYTES, data, true);
+        }
+    }
+
+    private void trackSpriteLines(int id, int spriteFieldY, boolean intersects) {
+        int spriteY = spriteFieldY - SPRITE_OFFSET_Y;
+        int endY = Math.min(LCD_HEIGHT, spriteY + spriteHeight());
+        for (int y = Math.max(0, spriteY); y < endY; ++y) {
+            if (intersects)
+                lineSprites[y] |= 1L << id;
+            else
+                lineSprites[y] &= ~(1L << id);
+        }
+    }
+
+    private void trackAllSpriteLines() {
+        Arrays.fill(lineSprites, 0);
+        for (int id = 0; id < SPRITES_COUNT; ++id)
+            trackSpriteLines(id, spriteField(id, SpriteField.Y), true);
+    }
+
+    @Override
+    public void loadMemories(Ram vRam, Ram oam) {
+        this.vRam.copyFrom(vRam);
+        this.oam.copyFrom(oam);
+        Arrays.fill(decodedTiles, false);
+        trackAllTileUses();
+        trackAllSpriteLines();
+        Arrays.fill(lines, null);
+    }
+
+    // The tile uses and sprite lines follow the tile source and sprite size of the last line
+    // computed, and are tracked again when a line uses different ones
+    @Override
+    public LcdImageLine line(int y, long regs, int winY) {
+        lineRegs = regs;
+        if (testLcdc(LcdcBit.TILE_SOURCE) != tileSource) {
+            tileSource = ! tileSource;
+            trackAllTileUses();
+        }
+        if (testLcdc(LcdcBit.OBJ_SIZE) != tallSprites) {
+            tallSprites = ! tallSprites;
+            trackAllSpriteLines();
+        }
+
+        LcdImageLine bgLayer = null;
+        if (testLcdc(LcdcBit.BG))
+            bgLayer = layerLine(LcdcBit.BG_AREA, Bits.clip(8, reg(LineReg.SCY) + y));
+
+        LcdImageLine winLayer = null;
+        if (LineRenderer.isWindowVisible(regs, y))
+            winLayer = layerLine(LcdcBit.WIN_AREA, winY);
+
+        int[] key = lineKey;
+        key[0] = (int) regs;
+        key[1] = (int) (regs >>> Integer.SIZE);
+        int spritesCount = testLcdc(LcdcBit.OBJ) ? setSpritesKey(y, key) : 0;
+        key[LINE_KEY_SPRITES_COUNT] = spritesCount;
+        int keySize = LINE_KEY_SPRITES_START + spritesCount * SPRITE_KEY_SIZE;
+
+        // Layer lines are replaced whenever their contents change, so comparing them by
+        // identity is enough to know whether the tile maps and tiles they show changed.
+        if (lines[y] != null
+                && bgLayer == lineBgLayers[y]
+                && winLayer == lineWinLayers[y]
+                && Arrays.equals(key, 0, keySize, lineKeys[y], 0, keySize))
+            return lines[y];
+
+        LcdImageLine line = EMPTY_LINE;
+        if (bgLayer != null) {
+            line = bgLayer
+                    .extractWrapped(reg(LineReg.SCX), LCD_WIDTH)
+                    .mapColors(reg(LineReg.BGP));
+        }
+        if (winLayer != null) {
+            int winX = LineRenderer.windowX(regs);
+            LcdImageLine winLine = winLayer
+                    .extractWrapped(0, LCD_WIDTH)
+                    .mapColors(reg(LineReg.BGP));
+            line = line.join(winLine.shift(winX), winX);
+        }
+        if (testLcdc(LcdcBit.OBJ)) {
+            paintSprites(key, spritesCount);
+            LcdImageLine bgSpriteLine = bgSpritePlanes.build();
+            LcdImageLine fgSpriteLine = fgSpritePlanes.build();
+            BitVector lineOpacity = line.opacity().or(bgSpriteLine.opacity().not());
+            line = bgSpriteLine.below(line, lineOpacity).below(fgSpriteLine);
+        }
+
+        lines[y] = line;
+        lineBgLayers[y] = bgLayer;
+        lineWinLayers[y] = winLayer;
+        System.arraycopy(key, 0, lineKeys[y], 0, keySize);
+        return line;
+    }
+
+    private LcdImageLine layerLine(LcdcBit areaBit, int y) {
+        int map = testLcdc(areaBit) ? 1 : 0;
+        int tileY = Bits.extract(y, 3, 5);
+        int row = map * FULL_LINE_TILES + tileY;
+        if ((dirtyLayerRows & (1L << row)) != 0) {
+            for (int lineY = 0; lineY < TILE_LINES; ++lineY)
+                layerLines[map][tileY * TILE_LINES + lineY] = bgMapLine(map, tileY, lineY);
+            dirtyLayerRows &= ~(1L << row);
+        }
+        return layerLines[map][y];
+    }
+
+    private LcdImageLine bgMapLine(int map, int tileY, int lineY) {
+        LcdImageLine.Builder lineB = new LcdImageLine.Builder(FULL_LINE_SIZE);
+
+        int baseIndex = AddressMap.BG_DISPLAY_DATA[map] - AddressMap.VIDEO_RAM_START;
+        for (int tileX = 0; tileX < FULL_LINE_TILES; ++tileX) {
+            int tileIndex = vRam.read(baseIndex + FULL_LINE_TILES * tileY + tileX);
+            int tileLine = tileLine(bgTile(tileIndex), lineY);
+            lineB.setBytes(tileX,
+                    tileByte(tileLine, BitsWeight.MSB, BitsOrder.REVERSED),
+                    tileByte(tileLine, BitsWeight.LSB, BitsOrder.REVERSED));
+        }
+
+        return lineB.build();
+    }
+
+    private int bgTile(int tileIndex) {
+        return LineRenderer.bgTile(tileSource, tileIndex);
+    }
+
+    private int spritesIntersectingLine(int y, int[] spritesToDisplay) {
+        long candidates = lineSprites[y];
+        int intersectingSpritesCount = 0;
+        while (candidates != 0 && intersectingSpritesCount < MAX_SPRITES_PER_LINE) {
+            int i = Long.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            spritesToDisplay[intersectingSpritesCount++] = packSprite(i, spriteField(i, SpriteField.X));
+        }
+        Arrays.sort(spritesToDisplay, 0, intersectingSpritesCount);
+
+        for (int i = 0; i < intersectingSpritesCount; ++i)
+            spritesToDisplay[i] = unpackSpriteIndex(spritesToDisplay[i]);
+
+        return intersectingSpritesCount;
+    }
+
+    private int packSprite(int index, int x) {
+        return (x << 8) | index;
+    }
+
+    private int unpackSpriteIndex(int packed) {
+        return packed & 0xFF;
+    }
+
+    private int setSpritesKey(int y, int[] key) {
+        int spriteHeight = spriteHeight();
+        int[] spritesToDisplay = lineSpritesToDisplay;
+        int spritesCount = spritesIntersectingLine(y, spritesToDisplay);
+        for (int i = 0; i < spritesCount; ++i) {
+            int id = spritesToDisplay[i];
+            int spriteAttrs = spriteField(id, SpriteField.ATTRIBUTES);
+            int spriteY = spriteField(id, SpriteField.Y) - SPRITE_OFFSET_Y;
+
+            int tileY = y - spriteY;
+            if (Bits.test(spriteAttrs, SpriteAttrBit.FLIP_V))
+                tileY = spriteHeight - 1 - tileY;
+
+            int keyStart = LINE_KEY_SPRITES_START + i * SPRITE_KEY_SIZE;
+            key[keyStart + SpriteKey.X.ordinal()] = spriteField(id, SpriteField.X);
+            key[keyStart + SpriteKey.ATTRIBUTES.ordinal()] = spriteAttrs;
+            key[keyStart + SpriteKey.TILE_LINE.ordinal()] = tileLine(spriteField(id, SpriteField.TILE), tileY);
+        }
+        return spritesCount;
+    }
+
+    // Sprites are painted by decreasing priority, each one only where no other one was painted before.
+    // The background planes receive all sprites, the foreground ones only those not behind the background.
+    private void paintSprites(int[] key, int spritesCount) {
+        bgSpritePlanes.clear();
+        fgSpritePlanes.clear();
+
+        for (int i = 0; i < spritesCount; ++i) {
+            int keyStart = LINE_KEY_SPRITES_START + i * SPRITE_KEY_SIZE;
+            int spriteAttrs = key[keyStart + SpriteKey.ATTRIBUTES.ordinal()];
+
+            int spriteX = key[keyStart + SpriteKey.X.ordinal()] - SPRITE_OFFSET_X;
+            BitsOrder bitsO = Bits.test(spriteAttrs, SpriteAttrBit.FLIP_H) ? BitsOrder.STRAIGHT : BitsOrder.REVERSED;
+            int tileLine = key[keyStart + SpriteKey.TILE_LINE.ordinal()];
+            int tileLsbByte = tileByte(tileLine, BitsWeight.LSB, bitsO);
+            int tileMsbByte = tileByte(tileLine, BitsWeight.MSB, bitsO);
+            int palette = reg(Bits.test(spriteAttrs, SpriteAttrBit.PALETTE) ? LineReg.OBP1 : LineReg.OBP0);
+
+            int msb = mapColorBits(palette, BitsWeight.MSB, tileMsbByte, tileLsbByte);
+            int lsb = mapColorBits(palette, BitsWeight.LSB, tileMsbByte, tileLsbByte);
+            int opacity = tileMsbByte | tileLsbByte;
+
+            bgSpritePlanes.paint(spriteX, msb, lsb, opacity);
+            if (! Bits.test(spriteAttrs, SpriteAttrBit.BEHIND_BG))
+                fgSpritePlanes.paint(spriteX, msb, lsb, opacity);
+        }
+    }
+
+    private static int mapColorBits(int palette, BitsWeight w, int msb, int lsb) {
+        int mapped = 0;
+        for (int color = 0; color < 4; ++color) {
+            if (Bits.test(palette, 2 * color + (w == BitsWeight.MSB ? 1 : 0))) {
+                int colorMsb = Bits.test(color, 1) ? msb : ~msb;
+                int colorLsb = Bits.test(color, 0) ? lsb : ~lsb;
+                mapped |= colorMsb & colorLsb;
+            }
+        }
+        return Bits.clip(Byte.SIZE, mapped);
+    }
+
+    private static final class SpritePlanes {
+        private static final int CHUNKS = LCD_WIDTH / Integer.SIZE;
+
+        private final int[] msb = new int[CHUNKS], lsb = new int[CHUNKS], opacity = new int[CHUNKS];
+
+        void clear() {
+            Arrays.fill(msb, 0);
+            Arrays.fill(lsb, 0);
+            Arrays.fill(opacity, 0);
+        }
+
+        void paint(int x, int msb8, int lsb8, int opacity8) {
+            int chunk = Math.floorDiv(x, Integer.SIZE), shift = Math.floorMod(x, Integer.SIZE);
+            paintChunk(chunk, msb8 << shift, lsb8 << shift, opacity8 << shift);
+            if (shift > Integer.SIZE - Byte.SIZE) {
+                int shiftR = Integer.SIZE - shift;
+                paintChunk(chunk + 1, msb8 >>> shiftR, lsb8 >>> shiftR, opacity8 >>> shiftR);
+            }
+        }
+
+        private void paintChunk(int chunk, int msb32, int lsb32, int opacity32) {
+            if (0 <= chunk && chunk < CHUNKS) {
+                int newPixels = opacity32 & ~opacity[chunk];
+                msb[chunk] |= msb32 & newPixels;
+                lsb[chunk] |= lsb32 & newPixels;
+                opacity[chunk] |= newPixels;
+            }
+        }
+
+        LcdImageLine build() {
+            BitVector.Builder msbB = new BitVector.Builder(LCD_WIDTH);
+            BitVector.Builder lsbB = new BitVector.Builder(LCD_WIDTH);
+            BitVector.Builder opacityB = new BitVector.Builder(LCD_WIDTH);
+            for (int i = 0; i < CHUNKS; ++i) {
+                msbB.setInt(i, msb[i]);
+                lsbB.setInt(i, lsb[i]);
+                opacityB.setInt(i, opacity[i]);
+            }
+            return new LcdImageLine(msbB.build(), lsbB.build(), opacityB.build());
+        }
+    }
+
+    private int spriteHeight() {
+        return tallSprites ? 16 : 8;
+    }
+
+    private int spriteField(int id, SpriteField field) {
+        return LineRenderer.spriteField(oam, id, field);
+    }
+
+    private enum BitsWeight { MSB, LSB };
+    private enum BitsOrder { STRAIGHT, REVERSED };
+
+    // y can exceed the tile height, for tall sprites, in which case the line is taken from the next tile
+    private int tileLine(int tile, int y) {
+        int lineIndex = tile * TILE_LINES + y;
+        int lineTile = lineIndex / TILE_LINES;
+        if (! decodedTiles[lineTile]) {
+            for (int i = 0; i < TILE_LINES; ++i) {
+                int address = lineTile * TILE_BYTES + i * 2;
+                decodedTileLines[lineTile * TILE_LINES + i] = packTileLine(vRam.read(address + 1), vRam.read(address));
+            }
+            decodedTiles[lineTile] = true;
+        }
+        return decodedTileLines[lineIndex];
+    }
+
+    // The byte of weight w and order o is stored at byte index 2 * o + w
+    private static int packTileLine(int msb, int lsb) {
+        return msb | (lsb << 8) | (Bits.reverse8(msb) << 16) | (Bits.reverse8(lsb) << 24);
+    }
+
+    private static int tileByte(int tileLine, BitsWeight w, BitsOrder o) {
+        return Bits.extract(tileLine, (2 * o.ordinal() + w.ordinal()) * Byte.SIZE, Byte.SIZE);
+    }
+}
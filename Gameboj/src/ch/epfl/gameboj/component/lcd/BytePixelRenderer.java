@@ -0,0 +1,203 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.lcd.LcdController.LcdcBit;
+import ch.epfl.gameboj.component.memory.Ram;
+
+// Renders lines one byte per pixel, holding the color of the pixel and flags telling
+// what was already painted there, and converts them to bit planes at the end
+final class BytePixelRenderer implements LineRenderer {
+    // Flags stored above the two bits of the color of a pixel
+    private static final int COLOR_MASK = 0b11;
+    private static final int BG_OPAQUE = 1 << 2, SPRITE_PAINTED = 1 << 3, FG_SPRITE_PAINTED = 1 << 4;
+
+    // For every byte, a long whose byte i is bit 7 - i of the byte, i.e. of pixel i of a tile line
+    private static final long[] SPREAD = new long[1 << Byte.SIZE];
+    static {
+        for (int b = 0; b < SPREAD.length; ++b) {
+            for (int i = 0; i < TILE_SIZE; ++i) {
+                if (Bits.test(b, TILE_SIZE - 1 - i))
+                    SPREAD[b] |= 1L << (i * Byte.SIZE);
+            }
+        }
+    }
+
+    private final Ram vRam;
+    private final Ram oam;
+
+    // The colors of the 8 pixels of every tile line, one per byte, from left to right
+    private final long[] decodedTileLines;
+    private final boolean[] decodedTiles;
+
+    private final byte[] pixels;
+    private final byte[] layerPixels;
+    private final int[] lineSprites;
+
+    public BytePixelRenderer(Ram vRam, Ram oam) {
+        this.vRam = LineRenderer.copyOf(vRam);
+        this.oam = LineRenderer.copyOf(oam);
+        this.decodedTileLines = new long[TILES_COUNT * TILE_LINES];
+        this.decodedTiles = new boolean[TILES_COUNT];
+        this.pixels = new byte[LCD_WIDTH];
+        this.layerPixels = new byte[FULL_LINE_SIZE];
+        this.lineSprites = new int[MAX_SPRITES_PER_LINE];
+    }
+
+    @Override
+    public void writeVram(int index, int data) {
+        vRam.write(index, data);
+        if (index < TILE_DATA_BYTES)
+            decodedTiles[index / TILE_BYTES] = false;
+    }
+
+    @Override
+    public void writeOam(int index, int data) {
+        oam.write(index, data);
+    }
+
+    @Override
+    public void loadMemories(Ram vRam, Ram oam) {
+        this.vRam.copyFrom(vRam);
+        this.oam.copyFrom(oam);
+        Arrays.fill(decodedTiles, false);
+    }
+
+    @Override
+    public LcdImageLine line(int y, long regs, int winY) {
+        int lcdc = LineRenderer.reg(regs, LineReg.LCDC);
+        int bgPalette = LineRenderer.reg(regs, LineReg.BGP);
+
+        Arrays.fill(pixels, (byte) 0);
+        if (Bits.test(lcdc, LcdcBit.BG)) {
+            int bgY = Bits.clip(8, LineRenderer.reg(regs, LineReg.SCY) + y);
+            decodeLayerLine(lcdc, LcdcBit.BG_AREA, bgY);
+            int scx = LineRenderer.reg(regs, LineReg.SCX);
+            for (int x = 0; x < LCD_WIDTH; ++x)
+                pixels[x] = layerPixel(bgPalette, (scx + x) % FULL_LINE_SIZE);
+        }
+        if (LineRenderer.isWindowVisible(regs, y)) {
+            decodeLayerLine(lcdc, LcdcBit.WIN_AREA, winY);
+            int winX = LineRenderer.windowX(regs);
+            for (int x = winX; x < LCD_WIDTH; ++x)
+                pixels[x] = layerPixel(bgPalette, x - winX);
+        }
+        if (Bits.test(lcdc, LcdcBit.OBJ))
+            blitSprites(y, regs, lcdc);
+
+        return toLine(Bits.test(lcdc, LcdcBit.OBJ));
+    }
+
+    private void decodeLayerLine(int lcdc, LcdcBit areaBit, int y) {
+        int mapIndex = AddressMap.BG_DISPLAY_DATA[Bits.test(lcdc, areaBit) ? 1 : 0] - AddressMap.VIDEO_RAM_START;
+        int rowIndex = mapIndex + (y / TILE_LINES) * FULL_LINE_TILES;
+        boolean tileSource = Bits.test(lcdc, LcdcBit.TILE_SOURCE);
+        for (int tileX = 0; tileX < FULL_LINE_TILES; ++tileX) {
+            long colors = tileLine(LineRenderer.bgTile(tileSource, vRam.read(rowIndex + tileX)), y % TILE_LINES);
+            for (int i = 0; i < TILE_SIZE; ++i)
+                layerPixels[tileX * TILE_SIZE + i] = (byte) (colors >>> (i * Byte.SIZE));
+        }
+    }
+
+    private byte layerPixel(int palette, int layerX) {
+        int color = layerPixels[layerX];
+        return (byte) (mapColor(palette, color) | (color == 0 ? 0 : BG_OPAQUE));
+    }
+
+    private static int mapColor(int palette, int color) {
+        return (palette >>> (2 * color)) & COLOR_MASK;
+    }
+
+    // Sprites are blitted by decreasing priority. A sprite in front of the background hides all the
+    // others not in front of it, while one behind the background only shows on its transparent
+    // pixels and when no sprite with a higher priority is there.
+    private void blitSprites(int y, long regs, int lcdc) {
+        int spriteHeight = Bits.test(lcdc, LcdcBit.OBJ_SIZE) ? 2 * TILE_LINES : TILE_LINES;
+        int spritesCount = spritesIntersectingLine(y, spriteHeight);
+        for (int i = 0; i < spritesCount; ++i) {
+            int id = lineSprites[i];
+            int attrs = LineRenderer.spriteField(oam, id, SpriteField.ATTRIBUTES);
+            int tileY = y - (LineRenderer.spriteField(oam, id, SpriteField.Y) - SPRITE_OFFSET_Y);
+            if (Bits.test(attrs, SpriteAttrBit.FLIP_V))
+                tileY = spriteHeight - 1 - tileY;
+
+            long colors = tileLine(LineRenderer.spriteField(oam, id, SpriteField.TILE), tileY);
+            if (Bits.test(attrs, SpriteAttrBit.FLIP_H))
+                colors = Long.reverseBytes(colors);
+            int palette = LineRenderer.reg(regs, Bits.test(attrs, SpriteAttrBit.PALETTE) ? LineReg.OBP1 : LineReg.OBP0);
+            boolean behindBg = Bits.test(attrs, SpriteAttrBit.BEHIND_BG);
+
+            int spriteX = LineRenderer.spriteField(oam, id, SpriteField.X) - SPRITE_OFFSET_X;
+            for (int j = 0; j < TILE_SIZE; ++j) {
+                int x = spriteX + j;
+                int color = (int) (colors >>> (j * Byte.SIZE)) & COLOR_MASK;
+                if (color == 0 || x < 0 || x >= LCD_WIDTH)
+                    continue;
+
+                int p = pixels[x];
+                if (! behindBg && (p & FG_SPRITE_PAINTED) == 0)
+                    p = mapColor(palette, color) | (p & BG_OPAQUE) | SPRITE_PAINTED | FG_SPRITE_PAINTED;
+                else if (behindBg && (p & SPRITE_PAINTED) == 0) {
+                    if ((p & BG_OPAQUE) == 0)
+                        p = mapColor(palette, color);
+                    p |= SPRITE_PAINTED;
+                }
+                pixels[x] = (byte) p;
+            }
+        }
+    }
+
+    // The first sprites in OAM intersecting the line, sorted by x coordinate then by index
+    private int spritesIntersectingLine(int y, int spriteHeight) {
+        int count = 0;
+        for (int id = 0; id < SPRITES_COUNT && count < MAX_SPRITES_PER_LINE; ++id) {
+            int spriteY = LineRenderer.spriteField(oam, id, SpriteField.Y) - SPRITE_OFFSET_Y;
+            if (spriteY <= y && y < spriteY + spriteHeight)
+                lineSprites[count++] = (LineRenderer.spriteField(oam, id, SpriteField.X) << Byte.SIZE) | id;
+        }
+        Arrays.sort(lineSprites, 0, count);
+        for (int i = 0; i < count; ++i)
+            lineSprites[i] &= 0xFF;
+        return count;
+    }
+
+    // y can exceed the tile height, for tall sprites, in which case the line is taken from the next tile
+    private long tileLine(int tile, int y) {
+        int lineIndex = tile * TILE_LINES + y;
+        int lineTile = lineIndex / TILE_LINES;
+        if (! decodedTiles[lineTile]) {
+            for (int i = 0; i < TILE_LINES; ++i) {
+                int address = lineTile * TILE_BYTES + i * 2;
+                long lsb = SPREAD[vRam.read(address)], msb = SPREAD[vRam.read(address + 1)];
+                decodedTileLines[lineTile * TILE_LINES + i] = (msb << 1) | lsb;
+            }
+            decodedTiles[lineTile] = true;
+        }
+        return decodedTileLines[lineIndex];
+    }
+
+    // When sprites are enabled, the bit-plane composition makes every pixel opaque
+    private LcdImageLine toLine(boolean allOpaque) {
+        BitVector.Builder msbB = new BitVector.Builder(LCD_WIDTH);
+        BitVector.Builder lsbB = new BitVector.Builder(LCD_WIDTH);
+        BitVector.Builder opacityB = new BitVector.Builder(LCD_WIDTH);
+        for (int c = 0; c < LCD_WIDTH / Integer.SIZE; ++c) {
+            int msb = 0, lsb = 0, opacity = 0;
+            for (int i = Integer.SIZE - 1; i >= 0; --i) {
+                int p = pixels[c * Integer.SIZE + i];
+                msb = (msb << 1) | ((p >>> 1) & 1);
+                lsb = (lsb << 1) | (p & 1);
+                opacity = (opacity << 1) | ((p & BG_OPAQUE) == 0 ? 0 : 1);
+            }
+            msbB.setInt(c, msb);
+            lsbB.setInt(c, lsb);
+            opacityB.setInt(c, allOpaque ? ~0 : opacity);
+        }
+        return new LcdImageLine(msbB.build(), lsbB.build(), opacityB.build());
+    }
+}
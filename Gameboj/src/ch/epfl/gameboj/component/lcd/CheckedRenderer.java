@@ -0,0 +1,39 @@
+package ch.epfl.gameboj.component.lcd;
+
+import ch.epfl.gameboj.component.memory.Ram;
+
+// Renders every line with two renderers, failing as soon as they disagree
+final class CheckedRenderer implements LineRenderer {
+    private final LineRenderer renderer, reference;
+
+    public CheckedRenderer(LineRenderer renderer, LineRenderer reference) {
+        this.renderer = renderer;
+        this.reference = reference;
+    }
+
+    @Override
+    public void writeVram(int index, int data) {
+        renderer.writeVram(index, data);
+        reference.writeVram(index, data);
+    }
+
+    @Override
+    public void writeOam(int index, int data) {
+        renderer.writeOam(index, data);
+        reference.writeOam(index, data);
+    }
+
+    @Override
+    public void loadMemories(Ram vRam, Ram oam) {
+        renderer.loadMemories(vRam, oam);
+        reference.loadMemories(vRam, oam);
+    }
+
+    @Override
+    public LcdImageLine line(int y, long regs, int winY) {
+        LcdImageLine line = renderer.line(y, regs, winY);
+        if (! line.equals(reference.line(y, regs, winY)))
+            throw new IllegalStateException("renderers disagree on line " + y);
+        return line;
+    }
+}
@@ -0,0 +1,104 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.checkIndex;
+
+import java.util.function.IntConsumer;
+
+// The lines of an image that differ from another one and, for each of them,
+// the span of pixels from the first to the last differing one
+public final class FrameDelta {
+    private final int width, height;
+    private final long[] dirtyLines;
+    private final int[] spanStarts, spanEnds;
+
+    FrameDelta(int width, int height, long[] dirtyLines, int[] spanStarts, int[] spanEnds) {
+        this.width = width;
+        this.height = height;
+        this.dirtyLines = dirtyLines;
+        this.spanStarts = spanStarts;
+        this.spanEnds = spanEnds;
+    }
+
+    // The delta of an image from nothing, in which every line is entirely dirty
+    public static FrameDelta full(int width, int height) {
+        checkArgument(0 < width && 0 < height);
+
+        long[] dirtyLines = new long[(height + Long.SIZE - 1) / Long.SIZE];
+        int[] spanStarts = new int[height], spanEnds = new int[height];
+        for (int y = 0; y < height; ++y) {
+            dirtyLines[y / Long.SIZE] |= 1L << y;
+            spanEnds[y] = width;
+        }
+        return new FrameDelta(width, height, dirtyLines, spanStarts, spanEnds);
+    }
+
+    public int width() { return width; }
+    public int height() { return height; }
+
+    public boolean isEmpty() {
+        for (long l : dirtyLines) {
+            if (l != 0)
+                return false;
+        }
+        return true;
+    }
+
+    public int dirtyLinesCount() {
+        int count = 0;
+        for (long l : dirtyLines)
+            count += Long.bitCount(l);
+        return count;
+    }
+
+    public boolean isLineDirty(int y) {
+        checkIndex(y, height);
+        return (dirtyLines[y / Long.SIZE] & (1L << y)) != 0;
+    }
+
+    // The span of a dirty line goes from spanStart included to spanEnd excluded, and is empty for clean lines
+    public int spanStart(int y) {
+        checkIndex(y, height);
+        return spanStarts[y];
+    }
+
+    public int spanEnd(int y) {
+        checkIndex(y, height);
+        return spanEnds[y];
+    }
+
+    // The dirty lines all lie between dirtyLinesStart included and dirtyLinesEnd excluded
+    public int dirtyLinesStart() {
+        for (int i = 0; i < dirtyLines.length; ++i) {
+            if (dirtyLines[i] != 0)
+                return i * Long.SIZE + Long.numberOfTrailingZeros(dirtyLines[i]);
+        }
+        return height;
+    }
+
+    public int dirtyLinesEnd() {
+        for (int i = dirtyLines.length - 1; i >= 0; --i) {
+            if (dirtyLines[i] != 0)
+                return (i + 1) * Long.SIZE - Long.numberOfLeadingZeros(dirtyLines[i]);
+        }
+        return 0;
+    }
+
+    public void forEachDirtyLine(IntConsumer c) {
+        for (int i = 0; i < dirtyLines.length; ++i) {
+            long l = dirtyLines[i];
+            while (l != 0) {
+                c.accept(i * Long.SIZE + Long.numberOfTrailingZeros(l));
+                l &= l - 1;
+            }
+        }
+    }
+
+    public interface SpanConsumer {
+        void accept(int y, int start, int end);
+    }
+
+    public void forEachSpan(SpanConsumer c) {
+        forEachDirtyLine(y -> c.accept(y, spanStarts[y], spanEnds[y]));
+    }
+}
@@ -0,0 +1,276 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.epfl.gameboj.SpscLongQueue;
+import ch.epfl.gameboj.Stateful;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.memory.Ram;
+
+// Assembles frames from the lines computed by a LineRenderer, either directly on the calling
+// thread or, when pipelined, on a worker thread fed through a queue of events. The worker applies
+// the writes to the video RAM and OAM in order with the lines, so every line sees these memories
+// exactly as they were when it was requested.
+final class FrameRenderer implements Stateful {
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int SPINS_BEFORE_PARKING = 1 << 10;
+
+    // An event is a long holding its kind in its low bits and its arguments above them,
+    // LINE events being followed by a second long holding the registers of the line
+    private enum Event { WRITE_VRAM, WRITE_OAM, START_FRAME, LINE, END_FRAME, SYNC, STOP };
+    private static final int EVENT_BITS = 3;
+
+    private LineRenderer lineRenderer;
+    // The builder of the last frame started, kept after it ended so that the state has a fixed size
+    private final LcdImage.Builder imageBuilder;
+    private boolean frameInProgress;
+    private LcdImage image;
+
+    private int[] argbOutput, argbColorMap;
+    private byte[] colorsOutput;
+
+    private SpscLongQueue events;
+    private Thread worker;
+    private volatile boolean workerParked;
+    // The thread waiting for an acknowledgement while parked, if any. Both sides write their own
+    // volatile field before reading the other one, so either the waiter sees the acknowledgement
+    // or the worker sees the waiter.
+    private volatile Thread parkedWaiter;
+    // Number of END_FRAME and SYNC events posted, and handled by the worker
+    private long eventsToAcknowledge;
+    private volatile long eventsAcknowledged;
+    private volatile LcdImage renderedImage;
+
+    public FrameRenderer(LineRenderer lineRenderer) {
+        this.lineRenderer = lineRenderer;
+        this.imageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+    }
+
+    public boolean isPipelined() {
+        return worker != null;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        if (pipelined == isPipelined())
+            return;
+
+        if (pipelined) {
+            events = new SpscLongQueue(QUEUE_CAPACITY);
+            worker = new Thread(this::work, "gameboj-renderer");
+            worker.setDaemon(true);
+            worker.start();
+        } else {
+            post(Event.STOP, 0);
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            worker = null;
+            events = null;
+        }
+    }
+
+    // The renderer must have a copy of the memories as they are after the last write
+    public void setLineRenderer(LineRenderer lineRenderer) {
+        sync();
+        this.lineRenderer = lineRenderer;
+    }
+
+    public void loadMemories(Ram vRam, Ram oam) {
+        sync();
+        lineRenderer.loadMemories(vRam, oam);
+    }
+
+    // Outputs and renderers are only changed once the worker handled all pending events
+    public void setArgbOutput(int[] argb, int[] colorMap) {
+        sync();
+        this.argbOutput = argb;
+        this.argbColorMap = colorMap;
+    }
+
+    public void setColorsOutput(byte[] colors) {
+        sync();
+        this.colorsOutput = colors;
+    }
+
+    public void writeVram(int index, int data) {
+        if (isPipelined())
+            post(Event.WRITE_VRAM, (index << Byte.SIZE) | data);
+        else
+            lineRenderer.writeVram(index, data);
+    }
+
+    public void writeOam(int index, int data) {
+        if (isPipelined())
+            post(Event.WRITE_OAM, (index << Byte.SIZE) | data);
+        else
+            lineRenderer.writeOam(index, data);
+    }
+
+    public void startFrame() {
+        if (isPipelined())
+            post(Event.START_FRAME, 0);
+        else
+            doStartFrame();
+    }
+
+    public void renderLine(int y, long regs, int winY) {
+        if (isPipelined()) {
+            post(Event.LINE, (y << Byte.SIZE) | winY);
+            events.put(regs);
+        } else
+            doRenderLine(y, regs, winY);
+    }
+
+    public LcdImage endFrame() {
+        if (isPipelined()) {
+            post(Event.END_FRAME, 0);
+            awaitAcknowledgement();
+            return renderedImage;
+        } else {
+            doEndFrame();
+            return image;
+        }
+    }
+
+    // The state is the frame being assembled, the memories of the line renderer having to be
+    // loaded separately
+    @Override
+    public void saveState(ByteBuffer b) {
+        sync();
+        b.put((byte) (frameInProgress ? 1 : 0));
+        imageBuilder.saveState(b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        sync();
+        frameInProgress = b.get() != 0;
+        imageBuilder.loadState(b);
+    }
+
+    @Override
+    public void reset() {
+        sync();
+        frameInProgress = false;
+        imageBuilder.clear();
+    }
+
+    private void sync() {
+        if (isPipelined()) {
+            post(Event.SYNC, 0);
+            awaitAcknowledgement();
+        }
+    }
+
+    // The builder is reused, as images are built from copies of its contents
+    private void doStartFrame() {
+        imageBuilder.clear();
+        frameInProgress = true;
+    }
+
+    private void doRenderLine(int y, long regs, int winY) {
+        LcdImageLine l = lineRenderer.line(y, regs, winY);
+        imageBuilder.setLine(y, l);
+        if (argbOutput != null)
+            l.writeArgb(argbOutput, y * LCD_WIDTH, argbColorMap);
+        if (colorsOutput != null)
+            l.writeColors(colorsOutput, y * LCD_WIDTH);
+    }
+
+    private void doEndFrame() {
+        image = imageBuilder.build();
+        frameInProgress = false;
+    }
+
+    private void post(Event e, int arguments) {
+        events.put(((long) arguments << EVENT_BITS) | e.ordinal());
+        // The event must be visible before workerParked is read, or the worker could park
+        // after having seen an empty queue without being woken up, see nextEvent
+        VarHandle.fullFence();
+        if (workerParked)
+            LockSupport.unpark(worker);
+    }
+
+    private void awaitAcknowledgement() {
+        long expected = ++eventsToAcknowledge;
+        int spins = 0;
+        while (eventsAcknowledged < expected) {
+            if (++spins < SPINS_BEFORE_PARKING)
+                Thread.onSpinWait();
+            else {
+                parkedWaiter = Thread.currentThread();
+                if (eventsAcknowledged < expected)
+                    LockSupport.park(this);
+                parkedWaiter = null;
+                spins = 0;
+            }
+        }
+    }
+
+    private void acknowledge() {
+        eventsAcknowledged += 1;
+        Thread waiter = parkedWaiter;
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+    }
+
+    private void work() {
+        while (true) {
+            long e = nextEvent();
+            int arguments = (int) (e >>> EVENT_BITS);
+            switch (Event.values()[Bits.clip(EVENT_BITS, (int) e)]) {
+            case WRITE_VRAM:
+                lineRenderer.writeVram(arguments >>> Byte.SIZE, arguments & 0xFF);
+                break;
+            case WRITE_OAM:
+                lineRenderer.writeOam(arguments >>> Byte.SIZE, arguments & 0xFF);
+                break;
+            case START_FRAME:
+                doStartFrame();
+                break;
+            case LINE:
+                doRenderLine(arguments >>> Byte.SIZE, events.take(), arguments & 0xFF);
+                break;
+            case END_FRAME:
+                doEndFrame();
+                renderedImage = image;
+                acknowledge();
+                break;
+            case SYNC:
+                acknowledge();
+                break;
+            case STOP:
+                return;
+            }
+        }
+    }
+
+    private long nextEvent() {
+        int spins = 0;
+        while (events.isEmpty()) {
+            if (++spins < SPINS_BEFORE_PARKING)
+                Thread.onSpinWait();
+            else {
+                workerParked = true;
+                VarHandle.fullFence();
+                if (events.isEmpty())
+                    LockSupport.park(this);
+                workerParked = false;
+                spins = 0;
+            }
+        }
+        return events.poll();
+    }
+}
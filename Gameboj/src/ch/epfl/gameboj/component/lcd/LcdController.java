@@ -1,16 +1,20 @@
 package ch.epfl.gameboj.component.lcd;
 
+import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
+import static java.util.Objects.requireNonNull;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
-import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
@@ -18,15 +22,9 @@ import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 import ch.epfl.gameboj.component.memory.Ram;
 
-public final class LcdController implements Component, Clocked {
+public final class LcdController implements Component, Clocked, Stateful {
     public static final int LCD_WIDTH = 160, LCD_HEIGHT = 144;
 
-    private static final int FULL_LINE_TILES = 32, VISIBLE_LINE_TILES = 20;
-    private static final int TILE_BYTES = 16;
-
-    private static final LcdImageLine EMPTY_LINE =
-            new LcdImageLine(new BitVector(LCD_WIDTH), new BitVector(LCD_WIDTH), new BitVector(LCD_WIDTH));
-
     private static final int LINE_MODE_2_START_CYCLE = 0;
     private static final int LINE_MODE_2_CYCLES = 20;
     private static final int LINE_MODE_3_START_CYCLE = LINE_MODE_2_START_CYCLE + LINE_MODE_2_CYCLES;
@@ -37,24 +35,21 @@ public final class LcdController implements Component, Clocked {
             LINE_MODE_2_CYCLES + LINE_MODE_3_CYCLES + LINE_MODE_0_CYCLES;
 
     private static final int VBLANK_LINES = 10;
-    private static final int FRAME_TOTAL_CYCLES = (LCD_HEIGHT + VBLANK_LINES) * LINE_TOTAL_CYCLES;
-
-    private static final int WIN_OFFSET_X = 7;
+    public static final int FRAME_TOTAL_CYCLES = (LCD_HEIGHT + VBLANK_LINES) * LINE_TOTAL_CYCLES;
 
-    private enum SpriteField { Y, X, TILE, ATTRIBUTES };
-    private enum SpriteAttrBit implements Bit {
-        UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
-    }
+    // The registers a line depends on, in the order of LineRenderer.LineReg
+    private static final Reg[] LINE_REGS = new Reg[] {
+            Reg.LCDC, Reg.SCY, Reg.SCX, Reg.WY, Reg.WX, Reg.BGP, Reg.OBP0, Reg.OBP1
+    };
 
-    private static final int SPRITE_OFFSET_X = 8, SPRITE_OFFSET_Y = 16;
-    private static final int SPRITES_COUNT = 40;
-    private static final int MAX_SPRITES_PER_LINE = 10;
+    // Shared by all controllers, as images are immutable
+    private static final LcdImage BLANK_IMAGE = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT).build();
 
     private enum Reg implements Register {
         LCDC, STAT, SCY, SCX, LY, LYC, DMA, BGP, OBP0, OBP1, WY, WX
     };
 
-    private enum LcdcBit implements Bit {
+    enum LcdcBit implements Bit {
         BG, OBJ, OBJ_SIZE, BG_AREA, TILE_SOURCE, WIN, WIN_AREA, LCD_STATUS
     };
 
@@ -82,10 +77,18 @@ public final class LcdController implements Component, Clocked {
 
     private long nextNonIdleCycle;
     private long lcdOnCycle;
-    private LcdImage currentImage;
-    private LcdImage.Builder nextImageBuilder;
+    private LcdImage currentImage, previousImage;
+    private final LcdImage.Builder loadedImageBuilder;
+    private FrameDelta currentImageDelta;
+    private RenderEngine renderEngine;
+    private final FrameRenderer frameRenderer;
     private int winY;
 
+    private RenderPolicy renderPolicy;
+    private boolean frameRequested, renderingFrame;
+    private long frameCount;
+    private final List<FrameListener> frameListeners;
+
     public LcdController(Cpu cpu) {
         this.cpu = cpu;
 
@@ -93,9 +96,15 @@ public final class LcdController implements Component, Clocked {
         this.oam = new Ram(AddressMap.OAM_RAM_SIZE);
         this.regs = new RegisterFile<>(Reg.values());
 
+        this.renderEngine = RenderEngine.BIT_PLANES;
+        this.frameRenderer = new FrameRenderer(renderEngine.newRenderer(vRam, oam));
+
         this.dmaCopyDst = AddressMap.OAM_END;
         this.nextNonIdleCycle = Long.MAX_VALUE;
-        this.currentImage = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT).build();
+        this.currentImage = BLANK_IMAGE;
+        this.loadedImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+        this.renderPolicy = RenderPolicy.ALWAYS;
+        this.frameListeners = new ArrayList<>();
     }
 
     @Override
@@ -168,11 +177,19 @@ public final class LcdController implements Component, Clocked {
     }
 
     private void writeVram(int address, int data) {
-        vRam.write(address - AddressMap.VIDEO_RAM_START, data);
+        int index = address - AddressMap.VIDEO_RAM_START;
+        if (data != vRam.read(index)) {
+            vRam.write(index, data);
+            frameRenderer.writeVram(index, data);
+        }
     }
 
     private void writeOam(int address, int data) {
-        oam.write(address - AddressMap.OAM_START, data);
+        int index = address - AddressMap.OAM_START;
+        if (data != oam.read(index)) {
+            oam.write(index, data);
+            frameRenderer.writeOam(index, data);
+        }
     }
 
     private Reg registerAt(int address) {
@@ -204,7 +221,11 @@ public final class LcdController implements Component, Clocked {
         int lineCycle = frameCycle % LINE_TOTAL_CYCLES;
 
         if (frameCycle == 0) {
-            nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+            renderingFrame = renderPolicy.shouldRender(frameCount, frameRequested);
+            if (renderingFrame) {
+                frameRenderer.startFrame();
+                frameRequested = false;
+            }
             winY = 0;
         }
 
@@ -217,7 +238,12 @@ public final class LcdController implements Component, Clocked {
                 break;
             case LINE_MODE_3_START_CYCLE:
                 setMode(3);
-                nextImageBuilder.setLine(line, computeLine(line));
+                if (renderingFrame) {
+                    long lineRegs = lineRegs();
+                    frameRenderer.renderLine(line, lineRegs, winY);
+                    if (LineRenderer.isWindowVisible(lineRegs, line))
+                        winY += 1;
+                }
                 nextNonIdleCycle += LINE_MODE_3_CYCLES;
                 break;
             case LINE_MODE_0_START_CYCLE:
@@ -231,8 +257,14 @@ public final class LcdController implements Component, Clocked {
             assert lineCycle == 0;
             if (line == LCD_HEIGHT) {
                 // Start of vertical blank
-                currentImage = nextImageBuilder.build();
-                nextImageBuilder = null;
+                if (renderingFrame) {
+                    previousImage = currentImage;
+                    currentImage = frameRenderer.endFrame();
+                    currentImageDelta = null;
+                }
+                for (FrameListener l : frameListeners)
+                    l.frameEnded(frameCount, renderingFrame);
+                frameCount += 1;
                 setMode(1);
                 cpu.requestInterrupt(Interrupt.VBLANK);
             }
@@ -242,6 +274,13 @@ public final class LcdController implements Component, Clocked {
         }
     }
 
+    private long lineRegs() {
+        long lineRegs = 0;
+        for (int i = LINE_REGS.length - 1; i >= 0; --i)
+            lineRegs = (lineRegs << Byte.SIZE) | regs.get(LINE_REGS[i]);
+        return lineRegs;
+    }
+
     private void setMode(int m) {
         regs.set(Reg.STAT, (regs.get(Reg.STAT) & STAT_NON_MODE_MASK) | m);
         if (m < STAT_INT_BITS.length && regs.testBit(Reg.STAT, STAT_INT_BITS[m]))
@@ -258,133 +297,142 @@ public final class LcdController implements Component, Clocked {
             cpu.requestInterrupt(Interrupt.LCD_STAT);
     }
 
-    public LcdImage currentImage() {
-        return currentImage;
+    // The memories returned by these accessors must only be read, e.g. to take snapshots of them
+    public Ram videoRam() {
+        return vRam;
     }
 
-    private LcdImageLine computeLine(int y) {
-        LcdImageLine line = EMPTY_LINE;
-        if (regs.testBit(Reg.LCDC, LcdcBit.BG)) {
-            int wrappedY = Bits.clip(8, regs.get(Reg.SCY) + y);
-            line = bgOrWinLine(LcdcBit.BG_AREA, FULL_LINE_TILES, wrappedY)
-                    .extractWrapped(regs.get(Reg.SCX), LCD_WIDTH)
-                    .mapColors(regs.get(Reg.BGP));
-        }
-        int adjWinX = Math.max(0, regs.get(Reg.WX) - WIN_OFFSET_X);
-        if (regs.testBit(Reg.LCDC, LcdcBit.WIN)
-                && adjWinX < LCD_WIDTH
-                && regs.get(Reg.WY) <= y) {
-            LcdImageLine winLine = bgOrWinLine(LcdcBit.WIN_AREA, VISIBLE_LINE_TILES, winY)
-                    .mapColors(regs.get(Reg.BGP));
-            line = line.join(winLine.shift(adjWinX), adjWinX);
-            winY += 1;
-        }
-        if (regs.testBit(Reg.LCDC, LcdcBit.OBJ)) {
-            int[] spritesToDisplay = spritesIntersectingLine(y);
-            LcdImageLine bgSpriteLine = spriteLine(spritesToDisplay, y, SpriteKind.BACKGROUND);
-            LcdImageLine fgSpriteLine = spriteLine(spritesToDisplay, y, SpriteKind.FOREGROUND);
-            BitVector lineOpacity = line.opacity().or(bgSpriteLine.opacity().not());
-            line = bgSpriteLine.below(line, lineOpacity).below(fgSpriteLine);
-        }
-        return line;
-    }
-
-    private LcdImageLine bgOrWinLine(LcdcBit sourceBit, int tilesCount, int y) {
-        LcdImageLine.Builder lineB = new LcdImageLine.Builder(tilesCount * Byte.SIZE);
-
-        int baseAddress = AddressMap.BG_DISPLAY_DATA[regs.testBit(Reg.LCDC, sourceBit) ? 1 : 0];
-        int bgTilesStart = AddressMap.TILE_SOURCE[regs.testBit(Reg.LCDC, LcdcBit.TILE_SOURCE) ? 1 : 0];
-        int tileY = Bits.extract(y, 3, 5), lineY = Bits.clip(3, y);
-        for (int tileX = 0; tileX < tilesCount; ++tileX) {
-            int tileIndex = readVram(baseAddress + FULL_LINE_TILES * tileY + tileX);
-            if (! regs.testBit(Reg.LCDC, LcdcBit.TILE_SOURCE))
-                tileIndex = Bits.clip(8, tileIndex + 0x80);
-            lineB.setBytes(tileX,
-                    tileByte(BitsWeight.MSB, bgTilesStart, tileIndex, lineY, BitsOrder.REVERSED),
-                    tileByte(BitsWeight.LSB, bgTilesStart, tileIndex, lineY, BitsOrder.REVERSED));
-        }
-
-        return lineB.build();
+    public Ram oam() {
+        return oam;
     }
 
-    private int[] spritesIntersectingLine(int y) {
-        int spriteHeight = spriteHeight();
+    public LcdImage currentImage() {
+        return currentImage;
+    }
 
-        int[] packedSprites = new int[MAX_SPRITES_PER_LINE];
-        int intersectingSpritesCount = 0;
-        for (int i = 0; i < SPRITES_COUNT && intersectingSpritesCount < MAX_SPRITES_PER_LINE; ++i) {
-            int spriteY = spriteField(i, SpriteField.Y) - SPRITE_OFFSET_Y;
-            if (spriteY <= y && y < spriteY + spriteHeight)
-                packedSprites[intersectingSpritesCount++] = packSprite(i, spriteField(i, SpriteField.X));
+    // The changes of the current image from the one published before it, computed when first asked
+    public FrameDelta currentImageDelta() {
+        if (currentImageDelta == null) {
+            currentImageDelta = previousImage == null
+                    ? FrameDelta.full(LCD_WIDTH, LCD_HEIGHT)
+                    : currentImage.deltaFrom(previousImage);
         }
-        Arrays.sort(packedSprites, 0, intersectingSpritesCount);
-
-        int[] spritesToDisplay = new int[intersectingSpritesCount];
-        for (int i = 0; i < intersectingSpritesCount; ++i)
-            spritesToDisplay[i] = unpackSpriteIndex(packedSprites[i]);
-
-        return spritesToDisplay;
+        return currentImageDelta;
     }
 
-    private int packSprite(int index, int x) {
-        return (x << 8) | index;
+    public long frameCount() {
+        return frameCount;
     }
 
-    private int unpackSpriteIndex(int packed) {
-        return packed & 0xFF;
+    // Only the pixels are affected by the policy, the timing of the controller is the same for all
+    public void setRenderPolicy(RenderPolicy policy) {
+        this.renderPolicy = requireNonNull(policy);
     }
 
-    private enum SpriteKind { BACKGROUND, FOREGROUND }
+    public void requestFrame() {
+        frameRequested = true;
+    }
 
-    private LcdImageLine spriteLine(int[] spritesToDisplay, int y, SpriteKind k) {
-        int spriteHeight = spriteHeight();
+    public interface FrameListener {
+        void frameEnded(long frame, boolean rendered);
+    }
 
-        LcdImageLine finalSpriteLine = EMPTY_LINE;
+    // Listeners are called at the start of every vertical blank, with the index of the frame that
+    // ended and whether it was rendered, in which case it is the current image
+    public void addFrameListener(FrameListener l) {
+        frameListeners.add(requireNonNull(l));
+    }
 
-        for (int id: spritesToDisplay) {
-            int spriteAttrs = spriteField(id, SpriteField.ATTRIBUTES);
+    public void removeFrameListener(FrameListener l) {
+        frameListeners.remove(l);
+    }
 
-            if (Bits.test(spriteAttrs, SpriteAttrBit.BEHIND_BG) && k == SpriteKind.FOREGROUND)
-                continue;
+    // Every line is also written to the given buffer as soon as it is computed, so the buffer
+    // contains parts of two frames until the vertical blank. A null buffer disables this output.
+    public void setArgbOutput(int[] argb, int[] colorMap) {
+        checkArgument(argb == null || (argb.length == LCD_WIDTH * LCD_HEIGHT && colorMap.length == 4));
+        frameRenderer.setArgbOutput(argb, argb == null ? null : colorMap.clone());
+    }
 
-            int spriteX = spriteField(id, SpriteField.X) - SPRITE_OFFSET_X;
-            int spriteY = spriteField(id, SpriteField.Y) - SPRITE_OFFSET_Y;
+    public void setColorsOutput(byte[] colors) {
+        checkArgument(colors == null || colors.length == LCD_WIDTH * LCD_HEIGHT);
+        frameRenderer.setColorsOutput(colors);
+    }
 
-            int tileY = y - spriteY;
-            if (Bits.test(spriteAttrs, SpriteAttrBit.FLIP_V))
-                tileY = spriteHeight - 1 - tileY;
+    // When pipelined, lines are computed on a separate thread, in parallel with the emulation,
+    // and the image is still published at the start of the vertical blank. The thread is stopped
+    // by disabling the pipeline again.
+    public void setPipelined(boolean pipelined) {
+        frameRenderer.setPipelined(pipelined);
+    }
 
-            int tileIndex = spriteField(id, SpriteField.TILE);
-            BitsOrder bitsO = Bits.test(spriteAttrs, SpriteAttrBit.FLIP_H) ? BitsOrder.STRAIGHT : BitsOrder.REVERSED;
-            int tileLsbByte = tileByte(BitsWeight.LSB, AddressMap.TILE_SOURCE[1], tileIndex, tileY, bitsO);
-            int tileMsbByte = tileByte(BitsWeight.MSB, AddressMap.TILE_SOURCE[1], tileIndex, tileY, bitsO);
-            int palette = regs.get(Bits.test(spriteAttrs, SpriteAttrBit.PALETTE) ? Reg.OBP1 : Reg.OBP0);
+    public boolean isPipelined() {
+        return frameRenderer.isPipelined();
+    }
 
-            finalSpriteLine = new LcdImageLine.Builder(LCD_WIDTH)
-                    .setBytes(0, tileMsbByte, tileLsbByte)
-                    .build()
-                    .shift(spriteX)
-                    .mapColors(palette)
-                    .below(finalSpriteLine);
+    // All engines produce the same images, the new one starts from the current memories
+    public void setRenderEngine(RenderEngine engine) {
+        if (engine != renderEngine) {
+            frameRenderer.setLineRenderer(engine.newRenderer(vRam, oam));
+            this.renderEngine = engine;
         }
-
-        return finalSpriteLine;
     }
 
-    private int spriteHeight() {
-        return regs.testBit(Reg.LCDC, LcdcBit.OBJ_SIZE) ? 16 : 8;
+    public RenderEngine renderEngine() {
+        return renderEngine;
     }
 
-    private int spriteField(int id, SpriteField field) {
-        assert 0 <= id && id < SPRITES_COUNT;
-        return readOam(AddressMap.OAM_START + id * 4 + field.ordinal());
+    // The render policy, outputs, pipeline and engine are settings, not part of the state
+    @Override
+    public void saveState(ByteBuffer b) {
+        vRam.saveState(b);
+        oam.saveState(b);
+        regs.saveState(b);
+        b.putShort((short) dmaCopySrc).putShort((short) dmaCopyDst);
+        b.putLong(nextNonIdleCycle).putLong(lcdOnCycle).putLong(frameCount);
+        b.put((byte) winY);
+        b.put((byte) ((frameRequested ? 1 : 0) | (renderingFrame ? 2 : 0)));
+        currentImage.saveState(b);
+        frameRenderer.saveState(b);
     }
 
-    private enum BitsWeight { MSB, LSB };
-    private enum BitsOrder { STRAIGHT, REVERSED };
+    @Override
+    public void loadState(ByteBuffer b) {
+        vRam.loadState(b);
+        oam.loadState(b);
+        regs.loadState(b);
+        dmaCopySrc = Short.toUnsignedInt(b.getShort());
+        dmaCopyDst = Short.toUnsignedInt(b.getShort());
+        nextNonIdleCycle = b.getLong();
+        lcdOnCycle = b.getLong();
+        frameCount = b.getLong();
+        winY = Byte.toUnsignedInt(b.get());
+        int flags = b.get();
+        frameRequested = (flags & 1) != 0;
+        renderingFrame = (flags & 2) != 0;
+        currentImage = LcdImage.loadState(b, loadedImageBuilder);
+        previousImage = null;
+        currentImageDelta = null;
+        frameRenderer.loadMemories(vRam, oam);
+        frameRenderer.loadState(b);
+    }
 
-    private int tileByte(BitsWeight w, int base, int tileIndex, int y, BitsOrder order) {
-        int b = readVram(base + tileIndex * TILE_BYTES + y * 2 + (w == BitsWeight.MSB ? 1 : 0));
-        return order == BitsOrder.STRAIGHT ? b : Bits.reverse8(b);
+    @Override
+    public void reset() {
+        vRam.reset();
+        oam.reset();
+        regs.reset();
+        dmaCopySrc = 0;
+        dmaCopyDst = AddressMap.OAM_END;
+        nextNonIdleCycle = Long.MAX_VALUE;
+        lcdOnCycle = 0;
+        frameCount = 0;
+        winY = 0;
+        frameRequested = renderingFrame = false;
+        currentImage = BLANK_IMAGE;
+        previousImage = null;
+        currentImageDelta = null;
+        frameRenderer.loadMemories(vRam, oam);
+        frameRenderer.reset();
     }
 }
@@ -1,27 +1,42 @@
 package ch.epfl.gameboj.component.lcd;
 
 import static ch.epfl.gameboj.Preconditions.checkArgument;
-import static java.util.Collections.nCopies;
-import static java.util.Collections.unmodifiableList;
 import static java.util.Objects.checkIndex;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
-import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.bits.Hashing;
 
 public final class LcdImage {
+    private static final int CHUNK_SIZE = Integer.SIZE;
+    private static final long LSB_MASK = 0xFFFF_FFFFL;
+
     private final int width, height;
-    private final List<LcdImageLine> lines;
+    // For every line, width / CHUNK_SIZE longs, each holding a chunk of the msb plane
+    // in its upper half and the corresponding chunk of the lsb plane in its lower half
+    private final long[] chunks;
+    private final long hash;
 
     public LcdImage(int width, int height, List<LcdImageLine> lines) {
-        checkArgument(0 < width);
-        checkArgument(0 < height);
+        this(builderOf(width, height, lines));
+    }
+
+    private static Builder builderOf(int width, int height, List<LcdImageLine> lines) {
         checkArgument(lines.size() == height);
 
-        this.width = width;
-        this.height = height;
-        this.lines = unmodifiableList(new ArrayList<>(lines));
+        Builder b = new Builder(width, height);
+        for (int y = 0; y < height; ++y)
+            b.setLine(y, lines.get(y));
+        return b;
+    }
+
+    private LcdImage(Builder b) {
+        this.width = b.width;
+        this.height = b.height;
+        this.chunks = b.chunks.clone();
+        this.hash = b.hash;
     }
 
     public int width() { return width; }
@@ -29,16 +44,107 @@ public final class LcdImage {
 
     public int get(int x, int y) {
         checkIndex(x, width);
+        checkIndex(y, height);
+
+        long chunk = chunks[y * chunksPerLine() + x / CHUNK_SIZE];
+        return color(chunk, x % CHUNK_SIZE);
+    }
+
+    private int chunksPerLine() {
+        return width / CHUNK_SIZE;
+    }
+
+    private static int color(long chunk, int i) {
+        int msb = (int) (chunk >>> (CHUNK_SIZE + i)) & 1;
+        int lsb = (int) (chunk >>> i) & 1;
+        return (msb << 1) | lsb;
+    }
+
+    public void writeArgb(int[] argb, int[] colorMap) {
+        for (int y = 0; y < height; ++y)
+            writeArgbLine(y, argb, colorMap);
+    }
+
+    // Writes line y at offset y * width, leaving the other lines untouched
+    public void writeArgbLine(int y, int[] argb, int[] colorMap) {
+        checkIndex(y, height);
+        checkArgument(argb.length == width * height);
+        checkArgument(colorMap.length == 4);
+
+        for (int c = y * chunksPerLine(); c < (y + 1) * chunksPerLine(); ++c) {
+            long chunk = chunks[c];
+            int offset = c * CHUNK_SIZE;
+            for (int i = 0; i < CHUNK_SIZE; ++i)
+                argb[offset + i] = colorMap[color(chunk, i)];
+        }
+    }
+
+    public void writeColors(byte[] colors) {
+        checkArgument(colors.length == width * height);
+
+        for (int c = 0; c < chunks.length; ++c) {
+            long chunk = chunks[c];
+            int offset = c * CHUNK_SIZE;
+            for (int i = 0; i < CHUNK_SIZE; ++i)
+                colors[offset + i] = (byte) color(chunk, i);
+        }
+    }
+
+    public FrameDelta deltaFrom(LcdImage previous) {
+        checkArgument(previous.width == width && previous.height == height);
+
+        long[] dirtyLines = new long[(height + Long.SIZE - 1) / Long.SIZE];
+        int[] spanStarts = new int[height], spanEnds = new int[height];
+        if (previous.hash != hash || ! Arrays.equals(previous.chunks, chunks)) {
+            int chunksPerLine = chunksPerLine();
+            for (int y = 0; y < height; ++y) {
+                int start = width, end = 0;
+                for (int c = 0; c < chunksPerLine; ++c) {
+                    long diff = chunks[y * chunksPerLine + c] ^ previous.chunks[y * chunksPerLine + c];
+                    // The differing pixels of the chunk, in either plane
+                    int pixels = (int) diff | (int) (diff >>> CHUNK_SIZE);
+                    if (pixels != 0) {
+                        start = Math.min(start, c * CHUNK_SIZE + Integer.numberOfTrailingZeros(pixels));
+                        end = (c + 1) * CHUNK_SIZE - Integer.numberOfLeadingZeros(pixels);
+                    }
+                }
+                if (start < end) {
+                    dirtyLines[y / Long.SIZE] |= 1L << y;
+                    spanStarts[y] = start;
+                    spanEnds[y] = end;
+                }
+            }
+        }
+        return new FrameDelta(width, height, dirtyLines, spanStarts, spanEnds);
+    }
+
+    void saveState(ByteBuffer b) {
+        putChunks(b, chunks);
+    }
 
-        LcdImageLine l = lines.get(checkIndex(y, height));
-        int msb = l.msb().testBit(x) ? 0b10 : 0;
-        int lsb = l.lsb().testBit(x) ? 0b01 : 0;
-        return msb | lsb;
+    // The builder, of the size of the image, is only used to read it
+    static LcdImage loadState(ByteBuffer b, Builder builder) {
+        builder.loadState(b);
+        return builder.build();
+    }
+
+    private static void putChunks(ByteBuffer b, long[] chunks) {
+        b.asLongBuffer().put(chunks);
+        b.position(b.position() + chunks.length * Long.BYTES);
+    }
+
+    private static void getChunks(ByteBuffer b, long[] chunks) {
+        b.asLongBuffer().get(chunks);
+        b.position(b.position() + chunks.length * Long.BYTES);
+    }
+
+    public long longHashCode() {
+        return hash;
     }
 
     @Override
     public int hashCode() {
-        return lines.hashCode();
+        return Long.hashCode(hash);
     }
 
     @Override
@@ -47,37 +153,81 @@ public final class LcdImage {
             LcdImage that = (LcdImage)thatO;
             return width == that.width
                     && height == that.height
-                    && lines.equals(that.lines);
+                    && hash == that.hash
+                    && Arrays.equals(chunks, that.chunks);
         } else
             return false;
     }
 
     public static final class Builder {
         private final int width, height;
-        private final List<LcdImageLine> lines;
+        private final long[] chunks;
+        // The hash of the image is the xor of the hashes of its lines
+        private final long[] lineHashes;
+        private long hash;
 
         public Builder(int width, int height) {
-            checkArgument(0 < width);
+            checkArgument(0 < width && width % CHUNK_SIZE == 0);
             checkArgument(0 < height);
 
-            BitVector emptyBits = new BitVector(width);
-            LcdImageLine emptyLine = new LcdImageLine(emptyBits, emptyBits, emptyBits);
-
             this.width = width;
             this.height = height;
-            this.lines = new ArrayList<>(nCopies(height, emptyLine));
+            this.chunks = new long[height * (width / CHUNK_SIZE)];
+            this.lineHashes = new long[height];
+            hashAllLines();
+        }
+
+        // Sets all pixels to color 0, as in a new builder
+        public Builder clear() {
+            Arrays.fill(chunks, 0);
+            hashAllLines();
+            return this;
+        }
+
+        private void hashAllLines() {
+            hash = 0;
+            for (int y = 0; y < height; ++y) {
+                lineHashes[y] = lineHash(y);
+                hash ^= lineHashes[y];
+            }
         }
 
         public Builder setLine(int y, LcdImageLine l) {
             checkIndex(y, height);
             checkArgument(l.size() == width);
 
-            lines.set(y, l);
+            int chunksPerLine = width / CHUNK_SIZE;
+            int lineStart = y * chunksPerLine;
+            for (int c = 0; c < chunksPerLine; ++c) {
+                long msb = l.msb().getInt(c), lsb = l.lsb().getInt(c);
+                chunks[lineStart + c] = (msb << CHUNK_SIZE) | (lsb & LSB_MASK);
+            }
+
+            hash ^= lineHashes[y];
+            lineHashes[y] = lineHash(y);
+            hash ^= lineHashes[y];
             return this;
         }
 
+        private long lineHash(int y) {
+            int chunksPerLine = width / CHUNK_SIZE;
+            long h = y + 1;
+            for (int c = y * chunksPerLine; c < (y + 1) * chunksPerLine; ++c)
+                h = Hashing.combine(h, chunks[c]);
+            return Hashing.finish(h);
+        }
+
+        void saveState(ByteBuffer b) {
+            putChunks(b, chunks);
+        }
+
+        void loadState(ByteBuffer b) {
+            getChunks(b, chunks);
+            hashAllLines();
+        }
+
         public LcdImage build() {
-            return new LcdImage(width, height, lines);
+            return new LcdImage(this);
         }
     }
 }
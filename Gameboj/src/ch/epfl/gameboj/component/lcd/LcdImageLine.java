@@ -1,6 +1,7 @@
 package ch.epfl.gameboj.component.lcd;
 
 import static ch.epfl.gameboj.Preconditions.checkArgument;
+import static java.util.Objects.checkFromIndexSize;
 
 import java.util.Objects;
 
@@ -9,6 +10,7 @@ import ch.epfl.gameboj.bits.Bits;
 
 public final class LcdImageLine {
     private final static int IDENTITY_MAP = 0b11_10_01_00;
+    private final static int COLORS_COUNT = 4;
 
     private final BitVector msb, lsb, opacity;
 
@@ -39,33 +41,18 @@ public final class LcdImageLine {
                 opacity.extractWrapped(start, size));
     }
 
+    // Every bit of the mapped planes is a function of the msb and lsb bits of the pixel,
+    // whose truth table is made of the corresponding bits of the map
     public LcdImageLine mapColors(int map) {
         if (map == IDENTITY_MAP)
             return this;
 
-        BitVector lsbInv = lsb.not();
-        BitVector msbInv = msb.not();
-
-        BitVector lsbM = new BitVector(size());
-        BitVector msbM = new BitVector(size());
-
-        for (int i = 0; i < 4; ++i) {
-            boolean colorBit0 = Bits.test(map, 2 * i);
-            boolean colorBit1 = Bits.test(map, 2 * i + 1);
-
-            if (colorBit0 || colorBit1) {
-                BitVector lsb1 = (Bits.test(i, 0) ? lsb : lsbInv);
-                BitVector msb1 = (Bits.test(i, 1) ? msb : msbInv);
-                BitVector mask = lsb1.and(msb1);
-
-                if (colorBit0)
-                    lsbM = lsbM.or(mask);
-                if (colorBit1)
-                    msbM = msbM.or(mask);
-            }
+        int msbTable = 0, lsbTable = 0;
+        for (int color = 0; color < COLORS_COUNT; ++color) {
+            msbTable |= Bits.extract(map, 2 * color + 1, 1) << color;
+            lsbTable |= Bits.extract(map, 2 * color, 1) << color;
         }
-
-        return new LcdImageLine(msbM, lsbM, opacity());
+        return new LcdImageLine(msb.combine(lsb, msbTable), msb.combine(lsb, lsbTable), opacity);
     }
 
     public LcdImageLine below(LcdImageLine that) {
@@ -75,25 +62,46 @@ public final class LcdImageLine {
     public LcdImageLine below(LcdImageLine that, BitVector op) {
         checkArgument(that.size() == this.size());
         return new LcdImageLine(
-                below(msb, that.msb, op),
-                below(lsb, that.lsb, op),
+                op.select(that.msb, msb),
+                op.select(that.lsb, lsb),
                 opacity.or(op));
     }
 
-    private static BitVector below(BitVector bg, BitVector fg, BitVector o) {
-        return bg.and(o.not()).or(fg.and(o));
-    }
-
     public LcdImageLine join(LcdImageLine that, int firstBit) {
         checkArgument(that.size() == this.size());
         checkArgument(0 <= firstBit && firstBit <= size());
 
-        BitVector thatMask = new BitVector(size(), true).shift(firstBit);
-        BitVector thisMask = thatMask.not();
         return new LcdImageLine(
-                msb.and(thisMask).or(that.msb.and(thatMask)),
-                lsb.and(thisMask).or(that.lsb.and(thatMask)),
-                opacity.and(thisMask).or(that.opacity.and(thatMask)));
+                msb.join(that.msb, firstBit),
+                lsb.join(that.lsb, firstBit),
+                opacity.join(that.opacity, firstBit));
+    }
+
+    public void writeArgb(int[] argb, int offset, int[] colorMap) {
+        checkArgument(colorMap.length == COLORS_COUNT);
+        checkFromIndexSize(offset, size(), argb.length);
+
+        for (int c = 0; c < size() / Integer.SIZE; ++c) {
+            int m = msb.getInt(c), l = lsb.getInt(c);
+            int chunkOffset = offset + c * Integer.SIZE;
+            for (int i = 0; i < Integer.SIZE; ++i)
+                argb[chunkOffset + i] = colorMap[color(m, l, i)];
+        }
+    }
+
+    public void writeColors(byte[] colors, int offset) {
+        checkFromIndexSize(offset, size(), colors.length);
+
+        for (int c = 0; c < size() / Integer.SIZE; ++c) {
+            int m = msb.getInt(c), l = lsb.getInt(c);
+            int chunkOffset = offset + c * Integer.SIZE;
+            for (int i = 0; i < Integer.SIZE; ++i)
+                colors[chunkOffset + i] = (byte) color(m, l, i);
+        }
+    }
+
+    private static int color(int msbChunk, int lsbChunk, int i) {
+        return (((msbChunk >>> i) & 1) << 1) | ((lsbChunk >>> i) & 1);
     }
 
     @Override
@@ -0,0 +1,75 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.Bit;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.lcd.LcdController.LcdcBit;
+import ch.epfl.gameboj.component.memory.Ram;
+
+// Computes the lines of the screen from its own copy of the video RAM and OAM, which is kept
+// up to date through writeVram and writeOam, and from the registers given for every line
+interface LineRenderer {
+    static final int WIN_OFFSET_X = 7;
+
+    static final int FULL_LINE_TILES = 32, FULL_LINE_SIZE = FULL_LINE_TILES * Byte.SIZE;
+    static final int TILE_BYTES = 16, TILE_LINES = 8, TILE_SIZE = 8;
+    static final int TILE_DATA_BYTES = AddressMap.BG_DISPLAY_DATA[0] - AddressMap.VIDEO_RAM_START;
+    static final int TILES_COUNT = TILE_DATA_BYTES / TILE_BYTES;
+
+    enum SpriteField { Y, X, TILE, ATTRIBUTES };
+    enum SpriteAttrBit implements Bit {
+        UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
+    }
+
+    static final int SPRITE_OFFSET_X = 8, SPRITE_OFFSET_Y = 16;
+    static final int SPRITE_BYTES = SpriteField.values().length;
+    static final int SPRITES_COUNT = 40;
+    static final int MAX_SPRITES_PER_LINE = 10;
+
+    // The registers a line depends on, packed in a long by LcdController, one byte each in this order
+    enum LineReg { LCDC, SCY, SCX, WY, WX, BGP, OBP0, OBP1 };
+
+    void writeVram(int index, int data);
+    void writeOam(int index, int data);
+    // Replaces both copies at once, e.g. when a state is loaded
+    void loadMemories(Ram vRam, Ram oam);
+
+    LcdImageLine line(int y, long regs, int winY);
+
+    static int reg(long regs, LineReg r) {
+        return (int) (regs >>> (r.ordinal() * Byte.SIZE)) & 0xFF;
+    }
+
+    static boolean isWindowVisible(long regs, int y) {
+        return Bits.test(reg(regs, LineReg.LCDC), LcdcBit.WIN)
+                && windowX(regs) < LCD_WIDTH
+                && reg(regs, LineReg.WY) <= y;
+    }
+
+    static int windowX(long regs) {
+        return Math.max(0, reg(regs, LineReg.WX) - WIN_OFFSET_X);
+    }
+
+    static int spriteField(Ram oam, int id, SpriteField field) {
+        assert 0 <= id && id < SPRITES_COUNT;
+        return oam.read(id * SPRITE_BYTES + field.ordinal());
+    }
+
+    // Tiles are numbered from the start of video RAM, i.e. from AddressMap.TILE_SOURCE[1]
+    static int bgTile(boolean tileSource, int tileIndex) {
+        if (tileSource)
+            return tileIndex;
+        else {
+            int tilesOffset = (AddressMap.TILE_SOURCE[0] - AddressMap.TILE_SOURCE[1]) / TILE_BYTES;
+            return tilesOffset + Bits.clip(8, tileIndex + 0x80);
+        }
+    }
+
+    static Ram copyOf(Ram ram) {
+        Ram copy = new Ram(ram.size());
+        copy.copyFrom(ram);
+        return copy;
+    }
+}
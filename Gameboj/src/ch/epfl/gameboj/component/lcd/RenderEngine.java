@@ -0,0 +1,25 @@
+package ch.epfl.gameboj.component.lcd;
+
+import ch.epfl.gameboj.component.memory.Ram;
+
+public enum RenderEngine {
+    // Bit planes of whole lines, with caches of layers and lines
+    BIT_PLANES,
+    // One byte per pixel, with tiles decoded 8 pixels at a time and sprites blitted directly
+    BYTE_PIXELS,
+    // Byte pixels, checked against bit planes
+    CHECKED;
+
+    LineRenderer newRenderer(Ram vRam, Ram oam) {
+        switch (this) {
+        case BIT_PLANES:
+            return new BitPlaneRenderer(vRam, oam);
+        case BYTE_PIXELS:
+            return new BytePixelRenderer(vRam, oam);
+        case CHECKED:
+            return new CheckedRenderer(new BytePixelRenderer(vRam, oam), new BitPlaneRenderer(vRam, oam));
+        default:
+            throw new Error();
+        }
+    }
+}
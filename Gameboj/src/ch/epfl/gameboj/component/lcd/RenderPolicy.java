@@ -0,0 +1,18 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+public interface RenderPolicy {
+    RenderPolicy ALWAYS = (frame, requested) -> true;
+    RenderPolicy ON_DEMAND = (frame, requested) -> requested;
+    RenderPolicy NEVER = (frame, requested) -> false;
+
+    public static RenderPolicy everyNthFrame(int n) {
+        checkArgument(0 < n);
+        return (frame, requested) -> frame % n == 0 || requested;
+    }
+
+    // Called at the start of every frame, with the index of that frame and whether
+    // a frame was requested since the last one that was rendered
+    boolean shouldRender(long frame, boolean requested);
+}
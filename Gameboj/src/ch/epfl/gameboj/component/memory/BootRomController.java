@@ -4,18 +4,22 @@ import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 import static java.util.Objects.requireNonNull;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 
-public final class BootRomController implements Component {
+public final class BootRomController implements Component, Stateful {
+    // Shared by all controllers, as it is immutable
+    private static final Rom BOOT_ROM = new Rom(BootRom.DATA);
+
     private final Cartridge cartridge;
-    private final Rom bootRom;
     private boolean bootRomDisabled;
 
     public BootRomController(Cartridge cartridge) {
         this.cartridge = requireNonNull(cartridge);
-        this.bootRom = new Rom(BootRom.DATA);
         this.bootRomDisabled = false;
     }
 
@@ -23,7 +27,7 @@ public final class BootRomController implements Component {
     public int read(int address) {
         checkBits16(address);
         if (! bootRomDisabled && AddressMap.BOOT_ROM_START <= address && address < AddressMap.BOOT_ROM_END)
-            return bootRom.read(address - AddressMap.BOOT_ROM_START);
+            return BOOT_ROM.read(address - AddressMap.BOOT_ROM_START);
         else
             return cartridge.read(address);
     }
@@ -34,4 +38,24 @@ public final class BootRomController implements Component {
             bootRomDisabled = true;
         cartridge.write(checkBits16(address), checkBits8(data));
     }
+
+    public boolean isBootRomDisabled() {
+        return bootRomDisabled;
+    }
+
+    // The state of the cartridge is not part of the one of the controller
+    @Override
+    public void saveState(ByteBuffer b) {
+        b.put((byte) (bootRomDisabled ? 1 : 0));
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        bootRomDisabled = b.get() != 0;
+    }
+
+    @Override
+    public void reset() {
+        bootRomDisabled = false;
+    }
 }
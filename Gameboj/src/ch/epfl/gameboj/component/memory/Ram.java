@@ -2,24 +2,270 @@ package ch.epfl.gameboj.component.memory;
 
 import static ch.epfl.gameboj.Preconditions.*;
 
-public final class Ram {
-    private final byte[] data;
+import static java.util.Objects.checkIndex;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import ch.epfl.gameboj.Stateful;
+
+// The contents are stored by pages, which can be shared with other memories and are then
+// copied by the first memory writing to them. The full pages of a new memory all share a page
+// of zeros, so that creating a memory only allocates its pages once they are written.
+public final class Ram implements Stateful {
+    private static final int PAGE_BITS = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // Page p is represented by bit p % 64 of word p / 64 of the page sets below
+    private static final int WORD_SHIFT = PAGE_BITS + 6;
+    // Never written, as it is always shared
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    private final int size;
+    private final byte[][] pages;
+    private final long[] dirtyPages, sharedPages;
+
+    // The xor of the keys of all the bytes, kept up to date while hashing
+    private boolean hashing;
+    private long hash;
+    // When excluded from the state, the memory saves and loads nothing, e.g. to copy the state
+    // of the other parts of a Game Boy to a fork already sharing its memories
+    private boolean excludedFromState;
 
     public Ram(int size) {
         checkArgument(0 <= size);
-        this.data = new byte[size];
+        this.size = size;
+        this.pages = new byte[pagesCount()][];
+        this.dirtyPages = new long[(pages.length + Long.SIZE - 1) / Long.SIZE];
+        this.sharedPages = new long[dirtyPages.length];
+        for (int p = 0; p < pages.length; ++p) {
+            if (pageSize(p) == PAGE_SIZE) {
+                pages[p] = ZERO_PAGE;
+                sharedPages[p / Long.SIZE] |= 1L << p;
+            } else
+                pages[p] = new byte[pageSize(p)];
+        }
+        markAllPagesDirty();
     }
 
     public int size() {
-        return data.length;
+        return size;
     }
 
     public int read(int index) {
-        return Byte.toUnsignedInt(data[index]);
+        return Byte.toUnsignedInt(pages[index >>> PAGE_BITS][index & PAGE_MASK]);
     }
 
     public void write(int index, int value) {
         checkBits8(value);
-        data[index] = (byte) value;
+        int p = index >>> PAGE_BITS;
+        byte[] page = pages[p];
+        if ((sharedPages[index >>> WORD_SHIFT] & (1L << p)) != 0)
+            page = ownPage(p);
+        if (hashing) {
+            int oldValue = Byte.toUnsignedInt(page[index & PAGE_MASK]);
+            hash ^= byteKey(index, oldValue) ^ byteKey(index, value);
+        }
+        page[index & PAGE_MASK] = (byte) value;
+        dirtyPages[index >>> WORD_SHIFT] |= 1L << p;
+    }
+
+    private byte[] ownPage(int p) {
+        pages[p] = pages[p].clone();
+        sharedPages[p / Long.SIZE] &= ~(1L << p);
+        return pages[p];
+    }
+
+    public void copyFrom(Ram that) {
+        checkArgument(that.size == size);
+        for (int p = 0; p < pages.length; ++p) {
+            if (isPageShared(p))
+                pages[p] = that.pages[p].clone();
+            else
+                System.arraycopy(that.pages[p], 0, pages[p], 0, pages[p].length);
+        }
+        clearBits(sharedPages);
+        markAllPagesDirty();
+        if (hashing)
+            hash = that.hash();
+    }
+
+    // Makes this memory share all its pages with the given one, as a copy of it that costs nothing
+    // until one of them is written. Both memories may then be used by different threads.
+    public void shareFrom(Ram that) {
+        checkArgument(that.size == size);
+        System.arraycopy(that.pages, 0, pages, 0, pages.length);
+        markAllPages(that.sharedPages);
+        markAllPages(sharedPages);
+        markAllPagesDirty();
+        if (hashing)
+            hash = that.hash();
+    }
+
+    private boolean isPageShared(int p) {
+        return (sharedPages[p / Long.SIZE] & (1L << p)) != 0;
+    }
+
+    // The number of pages shared with other memories, which were not written since being shared
+    public int sharedPagesCount() {
+        int count = 0;
+        for (int p = 0; p < pages.length; ++p) {
+            if (isPageShared(p) && pages[p] != ZERO_PAGE)
+                ++count;
+        }
+        return count;
+    }
+
+    // The memory is divided in pages of PAGE_SIZE bytes, the last one being possibly shorter. A page
+    // is dirty when it was written since the last call to clearDirtyPages, or since the creation of
+    // the memory, even if its contents did not change.
+    public int pagesCount() {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    public int pageSize(int page) {
+        checkIndex(page, pagesCount());
+        return Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+    }
+
+    public boolean isPageDirty(int page) {
+        checkIndex(page, pagesCount());
+        return (dirtyPages[page / Long.SIZE] & (1L << page)) != 0;
+    }
+
+    public int dirtyPagesCount() {
+        return countBits(dirtyPages);
+    }
+
+    public void forEachDirtyPage(IntConsumer c) {
+        for (int i = 0; i < dirtyPages.length; ++i) {
+            long w = dirtyPages[i];
+            while (w != 0) {
+                c.accept(i * Long.SIZE + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+    }
+
+    public void clearDirtyPages() {
+        clearBits(dirtyPages);
+    }
+
+    private void markAllPagesDirty() {
+        markAllPages(dirtyPages);
+    }
+
+    private void markAllPages(long[] pageSet) {
+        for (int i = 0; i < pageSet.length; ++i) {
+            int pagesInWord = Math.min(Long.SIZE, pages.length - i * Long.SIZE);
+            pageSet[i] = pagesInWord == Long.SIZE ? ~0L : (1L << pagesInWord) - 1;
+        }
+    }
+
+    private static void clearBits(long[] pageSet) {
+        for (int i = 0; i < pageSet.length; ++i)
+            pageSet[i] = 0;
+    }
+
+    private static int countBits(long[] pageSet) {
+        int count = 0;
+        for (long w : pageSet)
+            count += Long.bitCount(w);
+        return count;
+    }
+
+    public void savePage(int page, ByteBuffer b) {
+        checkIndex(page, pagesCount());
+        b.put(pages[page]);
+    }
+
+    public void loadPage(int page, ByteBuffer b) {
+        checkIndex(page, pagesCount());
+        if (hashing)
+            hash ^= pageHash(page);
+        if (isPageShared(page)) {
+            pages[page] = new byte[pages[page].length];
+            sharedPages[page / Long.SIZE] &= ~(1L << page);
+        }
+        b.get(pages[page]);
+        dirtyPages[page / Long.SIZE] |= 1L << page;
+        if (hashing)
+            hash ^= pageHash(page);
+    }
+
+    public void setExcludedFromState(boolean excludedFromState) {
+        this.excludedFromState = excludedFromState;
+    }
+
+    @Override
+    public void saveState(ByteBuffer b) {
+        if (excludedFromState)
+            return;
+        for (int p = 0; p < pages.length; ++p)
+            savePage(p, b);
+    }
+
+    @Override
+    public void loadState(ByteBuffer b) {
+        if (excludedFromState)
+            return;
+        for (int p = 0; p < pages.length; ++p)
+            loadPage(p, b);
+    }
+
+    // Fills the memory with zeros, only allocating the pages it shared
+    @Override
+    public void reset() {
+        for (int p = 0; p < pages.length; ++p) {
+            if (isPageShared(p))
+                pages[p] = new byte[pages[p].length];
+            else
+                Arrays.fill(pages[p], (byte) 0);
+        }
+        clearBits(sharedPages);
+        markAllPagesDirty();
+        hash = 0;
+    }
+
+    // The hash of the contents is the xor of a pseudo-random key for every non-zero byte, which
+    // depends on its index and value. It is computed when asked, unless hashing is enabled, in
+    // which case it is kept up to date by every change, in constant time for writes.
+    public long hash() {
+        if (hashing)
+            return hash;
+        long h = 0;
+        for (int p = 0; p < pages.length; ++p)
+            h ^= pageHash(p);
+        return h;
+    }
+
+    public void setHashing(boolean hashing) {
+        if (hashing && ! this.hashing)
+            hash = hash();
+        this.hashing = hashing;
+    }
+
+    public boolean isHashing() {
+        return hashing;
+    }
+
+    private long pageHash(int p) {
+        byte[] page = pages[p];
+        long h = 0;
+        for (int i = 0; i < page.length; ++i) {
+            if (page[i] != 0)
+                h ^= byteKey(p * PAGE_SIZE + i, Byte.toUnsignedInt(page[i]));
+        }
+        return h;
+    }
+
+    private static long byteKey(int index, int value) {
+        if (value == 0)
+            return 0;
+        long k = (((long) index << Byte.SIZE) | value) * 0x9E37_79B9_7F4A_7C15L;
+        k = (k ^ (k >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        k = (k ^ (k >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        return k ^ (k >>> 31);
     }
 }
@@ -1,9 +1,12 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public final class Rom {
     private final byte[] data;
+    private volatile byte[] digest;
 
     public Rom(byte[] data) {
         this.data = Arrays.copyOf(data, data.length);
@@ -16,4 +19,18 @@ public final class Rom {
     public int read(int index) {
         return Byte.toUnsignedInt(data[index]);
     }
+
+    // The SHA-256 digest of the contents, computed when first asked
+    public byte[] digest() {
+        byte[] d = digest;
+        if (d == null) {
+            try {
+                d = MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                throw new Error(e);
+            }
+            digest = d;
+        }
+        return d.clone();
+    }
 }
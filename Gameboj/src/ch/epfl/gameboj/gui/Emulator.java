@@ -0,0 +1,105 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.epfl.gameboj.FramePacer;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Rewinder;
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+// Runs a Game Boy at the pace of a frame pacer on its own thread, publishing every new image
+// through a triple buffer. Keys may be pressed and released from one other thread, and are
+// posted to the Game Boy to be applied as soon as possible.
+public final class Emulator {
+    private static final int FRAMES_PER_SNAPSHOT = 30;
+    private static final int REWIND_CAPACITY = 4 << 20;
+
+    private final GameBoy gameBoy;
+    private final FramePacer pacer;
+    private final Rewinder rewinder;
+    private final AtomicInteger framesToRewind;
+    private final TripleBuffer<Frame> frames;
+    private final Thread thread;
+    private volatile boolean running;
+
+    private LcdImage lastImage;
+    private long frameNumber;
+    private long keyEventsLost;
+
+    public Emulator(GameBoy gameBoy) {
+        this.gameBoy = gameBoy;
+        this.pacer = new FramePacer(gameBoy);
+        this.rewinder = new Rewinder(gameBoy, FRAMES_PER_SNAPSHOT, REWIND_CAPACITY);
+        this.framesToRewind = new AtomicInteger();
+        this.frames = new TripleBuffer<>(Frame::new);
+        this.thread = new Thread(this::run, "gameboj-emulation");
+        thread.setDaemon(true);
+    }
+
+    // The settings of the pacer may be changed from any thread
+    public FramePacer pacer() {
+        return pacer;
+    }
+
+    TripleBuffer<Frame> frames() {
+        return frames;
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        rewinder.close();
+        gameBoy.close();
+    }
+
+    // The emulation is rewound before its next tick, as far as its history allows
+    public void rewind(int frames) {
+        framesToRewind.addAndGet(frames);
+    }
+
+    public void keyPressed(Key k) {
+        postKeyEvent(k, true);
+    }
+
+    public void keyReleased(Key k) {
+        postKeyEvent(k, false);
+    }
+
+    private void postKeyEvent(Key k, boolean pressed) {
+        if (! gameBoy.postKeyEvent(0, k, pressed))
+            keyEventsLost += 1;
+    }
+
+    // The number of key events not posted because too many were pending
+    public long keyEventsLost() {
+        return keyEventsLost;
+    }
+
+    private void run() {
+        while (running) {
+            int frames = framesToRewind.getAndSet(0);
+            if (frames > 0)
+                rewinder.rewind(frames);
+            pacer.tick(System.nanoTime());
+            rewinder.update();
+            publishImage();
+            LockSupport.parkNanos(pacer.nanosUntilNextFrame());
+        }
+    }
+
+    private void publishImage() {
+        LcdImage image = gameBoy.lcdController().currentImage();
+        if (image != lastImage) {
+            frames.back().set(image, frameNumber++, System.nanoTime());
+            frames.publish();
+            lastImage = image;
+        }
+    }
+}
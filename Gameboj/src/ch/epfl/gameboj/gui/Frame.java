@@ -0,0 +1,35 @@
+package ch.epfl.gameboj.gui;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+// An image of the screen with its ARGB pixels, as exchanged between the emulation and JavaFX threads
+final class Frame {
+    private final int[] argb;
+    private LcdImage image;
+    private long number, publishedNanos;
+
+    Frame() {
+        this.argb = new int[LCD_WIDTH * LCD_HEIGHT];
+    }
+
+    int[] argb() { return argb; }
+    LcdImage image() { return image; }
+    long number() { return number; }
+    long publishedNanos() { return publishedNanos; }
+
+    // Only the lines differing from the image the frame held before are converted
+    void set(LcdImage newImage, long newNumber, long newPublishedNanos) {
+        if (image == null) {
+            newImage.writeArgb(argb, ImageConverter.COLOR_MAP);
+        } else {
+            newImage.deltaFrom(image)
+                    .forEachDirtyLine(y -> newImage.writeArgbLine(y, argb, ImageConverter.COLOR_MAP));
+        }
+        this.image = newImage;
+        this.number = newNumber;
+        this.publishedNanos = newPublishedNanos;
+    }
+}
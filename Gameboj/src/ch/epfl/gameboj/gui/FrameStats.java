@@ -0,0 +1,34 @@
+package ch.epfl.gameboj.gui;
+
+// Statistics about the frames shown since the last reset
+final class FrameStats {
+    private long shown, skipped, totalLatencyNanos, maxLatencyNanos;
+    private long lastNumber = -1;
+
+    // The latency of a frame is the time between its publication and the moment it is shown,
+    // and the frames skipped are those between it and the one shown before it
+    void frameShown(Frame f, long nowNanos) {
+        long latency = nowNanos - f.publishedNanos();
+        shown += 1;
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        if (lastNumber >= 0)
+            skipped += f.number() - lastNumber - 1;
+        lastNumber = f.number();
+    }
+
+    long shownCount() { return shown; }
+    long skippedCount() { return skipped; }
+
+    double meanLatencyMillis() {
+        return shown == 0 ? 0 : totalLatencyNanos / (shown * 1e6);
+    }
+
+    double maxLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+
+    void reset() {
+        shown = skipped = totalLatencyNanos = maxLatencyNanos = 0;
+    }
+}
@@ -1,26 +1,95 @@
 package ch.epfl.gameboj.gui;
 
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.nio.IntBuffer;
+
+import ch.epfl.gameboj.component.lcd.FrameDelta;
 import ch.epfl.gameboj.component.lcd.LcdImage;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 
+// Converts LCD images to one JavaFX image, reused from one image to the next, in which only
+// the lines that changed since the previous conversion are written
 public final class ImageConverter {
-    private static final int[] COLOR_MAP = new int[] {
+    static final int[] COLOR_MAP = new int[] {
             0xFF_FF_FF_FF, // white
             0xFF_D3_D3_D3, // light gray
             0xFF_A9_A9_A9, // dark gray
             0xFF_00_00_00  // black
     };
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbInstance();
 
-    public static Image convert(LcdImage lcdImage) {
-        WritableImage jfxImage = new WritableImage(lcdImage.width(), lcdImage.height());
+    private final int width, height;
+    private final WritableImage jfxImage;
+    private final int[] argb;
+    private LcdImage lastImage;
+
+    public ImageConverter(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.jfxImage = new WritableImage(width, height);
+        this.argb = new int[width * height];
+    }
+
+    public Image image() {
+        return jfxImage;
+    }
+
+    public Image update(LcdImage lcdImage) {
+        checkArgument(lcdImage.width() == width && lcdImage.height() == height);
+
+        if (lcdImage != lastImage) {
+            FrameDelta delta = deltaFromLast(lcdImage);
+            delta.forEachDirtyLine(y -> lcdImage.writeArgbLine(y, argb, COLOR_MAP));
+            upload(delta, argb);
+            lastImage = lcdImage;
+        }
+        return jfxImage;
+    }
+
+    // Like update, but with the pixels of the image already converted, in lcdArgb
+    public Image update(LcdImage lcdImage, int[] lcdArgb) {
+        checkArgument(lcdImage.width() == width && lcdImage.height() == height);
+        checkArgument(lcdArgb.length == width * height);
+
+        if (lcdImage != lastImage) {
+            upload(deltaFromLast(lcdImage), lcdArgb);
+            lastImage = lcdImage;
+        }
+        return jfxImage;
+    }
+
+    private FrameDelta deltaFromLast(LcdImage lcdImage) {
+        return lastImage == null
+                ? FrameDelta.full(width, height)
+                : lcdImage.deltaFrom(lastImage);
+    }
+
+    // Consecutive dirty lines are written together, as the smallest rectangle containing their spans
+    private void upload(FrameDelta delta, int[] pixels) {
         PixelWriter pixWriter = jfxImage.getPixelWriter();
-        for (int y = 0; y < lcdImage.height(); ++y) {
-            for (int x = 0; x < lcdImage.width(); ++x) {
-                pixWriter.setArgb(x, y, COLOR_MAP[lcdImage.get(x, y)]);
+        int y = delta.dirtyLinesStart();
+        int endY = delta.dirtyLinesEnd();
+        while (y < endY) {
+            if (! delta.isLineDirty(y)) {
+                ++y;
+                continue;
+            }
+            int runStartY = y, start = width, end = 0;
+            for (; y < endY && delta.isLineDirty(y); ++y) {
+                start = Math.min(start, delta.spanStart(y));
+                end = Math.max(end, delta.spanEnd(y));
             }
+            pixWriter.setPixels(start, runStartY, end - start, y - runStartY,
+                    PIXEL_FORMAT, pixels, runStartY * width + start, width);
         }
-        return jfxImage;
+    }
+
+    public static Image convert(LcdImage lcdImage) {
+        return new ImageConverter(lcdImage.width(), lcdImage.height()).update(lcdImage);
     }
 }
@@ -21,6 +21,7 @@ import javafx.stage.Stage;
 
 public final class Main extends Application {
     private static final int IMAGE_SCALE_FACTOR = 2;
+    private static final long STATS_PERIOD_NS = 1_000_000_000L;
 
     private static final Map<KeyCode, Joypad.Key> KEY_CODE_MAP =
             Map.of(KeyCode.RIGHT, Key.RIGHT,
@@ -29,6 +30,11 @@ public final class Main extends Application {
                     KeyCode.DOWN, Key.DOWN);
     private static final Map<String, Joypad.Key> KEY_TEXT_MAP =
             Map.of("a", Key.A, "b", Key.B, " ", Key.SELECT, "s", Key.START);
+    private static final KeyCode TURBO_KEY_CODE = KeyCode.TAB;
+    private static final KeyCode REWIND_KEY_CODE = KeyCode.BACK_SPACE;
+    private static final int REWIND_FRAMES = 60;
+
+    private Emulator emulator;
 
     public static void main(String[] args) {
         Application.launch(args);
@@ -45,20 +51,30 @@ public final class Main extends Application {
         String romFileName = params.get(0);
 
         GameBoy gameBoy = new GameBoy(Cartridge.ofFile(new File(romFileName)));
-        Joypad joyPad = gameBoy.joypad();
-        LcdController lcdController = gameBoy.lcdController();
+        emulator = new Emulator(gameBoy);
+        TripleBuffer<Frame> frames = emulator.frames();
 
         ImageView lcdScreen = new ImageView();
         lcdScreen.setFitWidth(LcdController.LCD_WIDTH * IMAGE_SCALE_FACTOR);
         lcdScreen.setFitHeight(LcdController.LCD_HEIGHT * IMAGE_SCALE_FACTOR);
+        ImageConverter imageConverter = new ImageConverter(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
+        lcdScreen.setImage(imageConverter.image());
 
+        // Holding the turbo key runs the emulation as fast as possible,
+        // and every press of the rewind key goes back one second
+        emulator.pacer().setAdaptiveFrameSkip(true);
         EventHandler<KeyEvent> keyHandler = e -> {
+            if (e.getCode() == TURBO_KEY_CODE)
+                emulator.pacer().setTurbo(e.getEventType() == KeyEvent.KEY_PRESSED);
+            if (e.getCode() == REWIND_KEY_CODE && e.getEventType() == KeyEvent.KEY_PRESSED)
+                emulator.rewind(REWIND_FRAMES);
+
             Joypad.Key b = KEY_CODE_MAP.getOrDefault(e.getCode(), KEY_TEXT_MAP.get(e.getText()));
             if (b != null) {
                 if (e.getEventType() == KeyEvent.KEY_PRESSED)
-                    joyPad.keyPressed(b);
+                    emulator.keyPressed(b);
                 else
-                    joyPad.keyReleased(b);
+                    emulator.keyReleased(b);
             }
         };
         lcdScreen.setOnKeyPressed(keyHandler);
@@ -72,15 +88,35 @@ public final class Main extends Application {
 
         lcdScreen.requestFocus();
 
-        long start = System.nanoTime();
+        FrameStats stats = new FrameStats();
         AnimationTimer timer = new AnimationTimer() {
+            private long statsStart = System.nanoTime();
+
             @Override
             public void handle(long now) {
-                long elapsed = now - start;
-                gameBoy.runUntil((long) (elapsed * GameBoy.CYCLES_PER_NS));
-                lcdScreen.setImage(ImageConverter.convert(lcdController.currentImage()));
+                if (frames.acquire()) {
+                    Frame f = frames.front();
+                    imageConverter.update(f.image(), f.argb());
+                    stats.frameShown(f, System.nanoTime());
+                }
+
+                if (now - statsStart >= STATS_PERIOD_NS) {
+                    primaryStage.setTitle(String.format(
+                            "Gameboj (%d frames shown, %d skipped, %.1f ms mean latency, %.1f ms max, %d dropped in total)",
+                            stats.shownCount(), stats.skippedCount(),
+                            stats.meanLatencyMillis(), stats.maxLatencyMillis(), frames.droppedCount()));
+                    stats.reset();
+                    statsStart = now;
+                }
             }
         };
+        emulator.start();
         timer.start();
     }
+
+    @Override
+    public void stop() throws Exception {
+        if (emulator != null)
+            emulator.stop();
+    }
 }
@@ -0,0 +1,58 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Three buffers shared by one producer thread, filling the back one, and one consumer thread, reading
+// the front one, without locks. Publishing swaps the back buffer with the middle one, and acquiring
+// swaps the middle buffer with the front one if it was published since the last acquisition.
+public final class TripleBuffer<T> {
+    private static final int INDEX_MASK = 0b11, FRESH = 0b100;
+
+    private final List<T> buffers;
+    // The index of the middle buffer, with FRESH set if it was published and not acquired yet
+    private final AtomicInteger middle;
+    private int back, front;
+
+    private volatile long published, dropped;
+
+    public TripleBuffer(Supplier<T> bufferSupplier) {
+        this.buffers = List.of(bufferSupplier.get(), bufferSupplier.get(), bufferSupplier.get());
+        this.front = 0;
+        this.middle = new AtomicInteger(1);
+        this.back = 2;
+    }
+
+    public T back() {
+        return buffers.get(back);
+    }
+
+    public void publish() {
+        int previousMiddle = middle.getAndSet(back | FRESH);
+        back = previousMiddle & INDEX_MASK;
+        published += 1;
+        if ((previousMiddle & FRESH) != 0)
+            dropped += 1;
+    }
+
+    public boolean acquire() {
+        if ((middle.get() & FRESH) == 0)
+            return false;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return true;
+    }
+
+    public T front() {
+        return buffers.get(front);
+    }
+
+    public long publishedCount() {
+        return published;
+    }
+
+    // The number of buffers replaced by a newer one before being acquired
+    public long droppedCount() {
+        return dropped;
+    }
+}